@@ -33,6 +33,10 @@ android {
     kotlinOptions {
         jvmTarget = "11"
     }
+    testOptions {
+        // the frame calculations log through android.util.Log
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -8,16 +8,26 @@ import androidx.appcompat.app.AppCompatActivity
 import androidx.core.view.ViewCompat
 import androidx.core.view.WindowInsetsCompat
 import com.example.frames_demo.R
+import com.example.frames_demo.common.frame_calculations.FrameSample
+import com.example.frames_demo.common.frame_calculations.RollingFrameStats
 import com.example.frames_demo.datadog.frame_calculation.DefaultSlowFramesListener
 import com.example.frames_demo.datadog.frame_calculation.FrameStatesAggregator
+import com.example.frames_demo.datadog.frame_calculation.SlowFrameRecord
 import com.example.frames_demo.datadog.frame_calculation.SlowFramesConfiguration
+import com.example.frames_demo.datadog.frame_calculation.UiStateFrameStats
+import com.example.frames_demo.datadog.frame_calculation.UiStates
 import com.example.frames_demo.firebase.frame_calculations.AppFrameMetricsCalculator.PerfFrameMetrics
+import com.example.frames_demo.firebase.frame_calculations.FragmentFrameMetricsTracker
+import com.example.frames_demo.firebase.frame_calculations.FrameDurationHistogram
 import com.example.frames_demo.firebase.frame_calculations.FrameMetricsRecorder
+import com.example.frames_demo.firebase.frame_calculations.ScreenFrameMetricsStore
 import com.example.frames_demo.firebase.utils.Optional
+import com.example.frames_demo.firebase.utils.Constants as FirebaseConstants
 import com.example.frames_demo.sentry.frame_calculations.ActivityFrameMetricsCollector
-import com.example.frames_demo.sentry.frame_calculations.AppFrameMetrics
 import com.example.frames_demo.sentry.frame_calculations.FrameMetricsCollector
+import com.example.frames_demo.sentry.frame_calculations.SpanFrames
 import com.example.frames_demo.sentry.span.Span
+import com.example.frames_demo.sentry.span.SpanMeasurements
 import com.example.frames_demo.sentry.utils.Constants
 import java.util.Date
 
@@ -27,7 +37,10 @@ class MainActivity : AppCompatActivity() {
     private var frameMetricsCollector: FrameMetricsCollector? = null
     private lateinit var frameStatesAggregator: FrameStatesAggregator
     private lateinit var slowFramesListener: DefaultSlowFramesListener
+    private lateinit var uiStates: UiStates
+    private lateinit var uiStateFrameStats: UiStateFrameStats
     private val slowFramesConfiguration = SlowFramesConfiguration()
+    private val screenFrameMetricsStore = ScreenFrameMetricsStore()
     private var isPrevSentryStopped = true
     private var isPrevFirebaseStopped = true
     private var isPrevDatadogStopped = true
@@ -37,10 +50,21 @@ class MainActivity : AppCompatActivity() {
         super.onCreate(savedInstanceState)
         this.enableEdgeToEdge()
         setContentView(R.layout.activity_main)
-        frameMetricsCollector = FrameMetricsCollector(applicationContext)
-        val frameMetricsRecorder = FrameMetricsRecorder(this)
+        frameMetricsCollector = FrameMetricsCollector.getInstance(applicationContext)
+        frameMetricsCollector?.setMaxSpanFrames(MAX_SPAN_FRAMES)
+        val frameMetricsRecorder = FrameMetricsRecorder(this, true)
+        supportFragmentManager.registerFragmentLifecycleCallbacks(
+            FragmentFrameMetricsTracker(frameMetricsRecorder, screenFrameMetricsStore),
+            true
+        )
         slowFramesListener = DefaultSlowFramesListener(window, slowFramesConfiguration)
-        frameStatesAggregator = FrameStatesAggregator(listOf(slowFramesListener))
+        uiStates = UiStates(window.decorView)
+        uiStates.onScreenChanged(javaClass.simpleName)
+        uiStateFrameStats = UiStateFrameStats(window, uiStates)
+        frameStatesAggregator = FrameStatesAggregator(
+            listOf(slowFramesListener, uiStateFrameStats),
+            useFrameSource = true
+        )
 
         val resultsText: TextView =
             findViewById(R.id.text_view)
@@ -54,7 +78,15 @@ class MainActivity : AppCompatActivity() {
 
         findViewById<View>(R.id.stop_sentry_btn).setOnClickListener {
             isPrevSentryStopped = true
-            showSentryResults(resultsText)
+            // the frame metrics are captured off the main thread, the results are shown once ready
+            activityFrameMetricsCollector.stopCollection(frameMetricsCollector) { span ->
+                runOnUiThread {
+                    showSentryResults(resultsText, span)
+                    frameMetricsCollector?.let {
+                        showRollingFrameStats(resultsText, it.rollingFrameStats)
+                    }
+                }
+            }
         }
         findViewById<View>(R.id.start_firebase_btn).setOnClickListener {
             if(isPrevFirebaseStopped) {
@@ -67,6 +99,9 @@ class MainActivity : AppCompatActivity() {
             val optionalFrameMetrics: Optional<PerfFrameMetrics> =
                 frameMetricsRecorder.stop()
             showFirebaseResults(resultsText, optionalFrameMetrics)
+            frameMetricsRecorder.rollingFrameStats?.let {
+                showRollingFrameStats(resultsText, it)
+            }
         }
         findViewById<View>(R.id.start_datadog_btn).setOnClickListener {
             if(isPrevDatadogStopped) {
@@ -81,11 +116,14 @@ class MainActivity : AppCompatActivity() {
             isPrevDatadogStopped = true
             frameStatesAggregator.stopTracking(window)
             showDatadogResults(resultsText)
+            showRollingFrameStats(resultsText, slowFramesListener.getRollingFrameStats())
         }
 
 
         findViewById<View>(R.id.start_computation_btn).setOnClickListener { performHeavyComputation() }
         findViewById<View>(R.id.start_animation_btn).setOnClickListener { v: View ->
+            uiStates.putState(ANIMATION_STATE, true.toString())
+            val animationSpan = activityFrameMetricsCollector.startChild()
             v.animate()
                 .translationXBy(200f)
                 .rotation(360f)
@@ -95,6 +133,8 @@ class MainActivity : AppCompatActivity() {
                 .setDuration(1000)
                 .setListener(object : AnimatorListenerAdapter() {
                     override fun onAnimationEnd(animation: android.animation.Animator) {
+                        uiStates.removeState(ANIMATION_STATE)
+                        animationSpan?.setFinishedDate(System.nanoTime())
                         v.alpha = 1f
                         v.scaleX = 1f
                         v.scaleY = 1f
@@ -114,37 +154,55 @@ class MainActivity : AppCompatActivity() {
         }
     }
 
-    private fun showSentryResults(resultsText: TextView) {
-        val span: Span =
-            activityFrameMetricsCollector.stopCollection(frameMetricsCollector)
-                ?: return
-
+    private fun showSentryResults(resultsText: TextView, span: Span) {
         val data = span.data
         resultsText.text = ""
-        val frames: List<AppFrameMetrics>? =
-            span.getData(Constants.FRAMES_LIST) as List<AppFrameMetrics>?
+        val frames = span.getData(Constants.FRAMES_LIST) as SpanFrames?
         for ((key, value) in data) {
             if (key != Constants.FRAMES_LIST) {
                 resultsText.append("\n$key: $value")
             }
         }
-        var i = 0
+        appendMeasurements(resultsText, span)
+        for (child in span.children) {
+            if (child.isFinished) {
+                resultsText.append("\n\nAnimation span")
+                appendMeasurements(resultsText, child)
+            }
+        }
         checkNotNull(frames)
-        if(frames.isNotEmpty()) {
-            resultsText.append("\n\nFrames")
+        if (!frames.isEmpty) {
+            resultsText.append(
+                "\n\nFrames (up to $MAX_SPAN_FRAMES worst, ${frames.encode().size} bytes encoded)"
+            )
 
-            for (frame in frames) {
-                i++
-                resultsText.append("\nFrame $i")
+            val frame = frames.cursor()
+            while (frame.moveToNext()) {
+                resultsText.append("\nFrame ${frame.index + 1}")
                 resultsText.append("\nis slow: ${frame.isSlow}")
                 resultsText.append("\nis frozen: ${frame.isFrozen}")
                 resultsText.append("\nDuration: ${frame.durationNanos / 1e6} ms")
                 resultsText.append("\nDelay: ${frame.delayNanos / 1e6} ms")
+                resultsText.append("\nDominant stage: ${FrameSample.getStageName(frame.dominantStage)}")
                 resultsText.append("\nStart time: ${Date(frame.startMillis)}")
             }
         }
     }
 
+    private fun appendMeasurements(resultsText: TextView, span: Span) {
+        for (slot in 0 until SpanMeasurements.COUNT) {
+            if (!span.hasMeasurement(slot)) {
+                continue
+            }
+            val value = span.getMeasurement(slot)
+            if (SpanMeasurements.isDuration(slot)) {
+                resultsText.append("\n${SpanMeasurements.getName(slot)}: ${value / 1e6} ms")
+            } else {
+                resultsText.append("\n${SpanMeasurements.getName(slot)}: $value")
+            }
+        }
+    }
+
     private fun showFirebaseResults(
         resultsText: TextView,
         optionalFrameMetrics: Optional<PerfFrameMetrics>
@@ -152,8 +210,7 @@ class MainActivity : AppCompatActivity() {
         resultsText.text = ""
         if (optionalFrameMetrics.isAvailable) {
             val frameMetrics: PerfFrameMetrics? = optionalFrameMetrics.get()
-            val slowFramesMap: Map<Int, Int> = frameMetrics!!.slowFramesMap
-            val frozenFramesMap: Map<Int, Int> = frameMetrics.frozenFramesMap
+            val histogram: FrameDurationHistogram = frameMetrics!!.frameDurationHistogram
 
             resultsText.append(
                 "\nTotal Frames received: ${frameMetrics.totalFrames}"
@@ -167,51 +224,105 @@ class MainActivity : AppCompatActivity() {
             resultsText.append(
                 "\nTotal Delay Duration: ${frameMetrics.totalDelayDuration} ms"
             )
-            for ((key, value) in slowFramesMap) {
+            resultsText.append(
+                "\nFrame duration p50: ${histogram.getValueAtPercentile(50.0)} ms, " +
+                        "p90: ${histogram.getValueAtPercentile(90.0)} ms, " +
+                        "p99: ${histogram.getValueAtPercentile(99.0)} ms"
+            )
+            for (stage in 0 until FrameSample.STAGE_COUNT) {
+                val stageHistogram = frameMetrics.getStageHistogram(stage) ?: break
                 resultsText.append(
-                    "\n Slow frames that took $key ms are $value frames"
+                    "\n ${FrameSample.getStageName(stage)} p90: " +
+                            "${stageHistogram.getValueAtPercentile(90.0) / 1e3} ms"
                 )
             }
-            for ((key, value) in frozenFramesMap) {
-                resultsText.append(
-                    " \n Frozen frames that took {$key} ms are $value frames"
-                )
+            for (i in 0 until histogram.bucketCount) {
+                val count = histogram.getCountAtBucket(i)
+                val duration = histogram.getBucketLowerBound(i)
+                if (count == 0L || duration <= frameMetrics.slowFrameThresholdMs) {
+                    continue
+                }
+                if (duration > FirebaseConstants.FROZEN_FRAME_TIME) {
+                    resultsText.append(
+                        " \n Frozen frames that took {$duration} ms are $count frames"
+                    )
+                } else {
+                    resultsText.append(
+                        "\n Slow frames that took $duration ms are $count frames"
+                    )
+                }
             }
         }
+        for (screen in screenFrameMetricsStore.all) {
+            resultsText.append(
+                "\n\nScreen ${screen.screenName} (${screen.traceCount} traces): " +
+                        "${screen.totalFrames} frames, ${screen.slowFrames} slow, " +
+                        "${screen.frozenFrames} frozen"
+            )
+        }
     }
+    private fun showRollingFrameStats(resultsText: TextView, rollingFrameStats: RollingFrameStats) {
+        for (seconds in intArrayOf(1, 10, RollingFrameStats.MAX_WINDOW_SECONDS)) {
+            val window = rollingFrameStats.getWindow(seconds)
+            resultsText.append(
+                "\nLast ${seconds}s: ${"%.1f".format(window.framesPerSecond)} fps, " +
+                        "${"%.1f".format(window.slowFrameRate * 100)}% slow, " +
+                        "${window.frozenFrameCount} frozen, delay ${window.delayNanos / 1e6} ms"
+            )
+        }
+    }
+
     private fun showDatadogResults(
         resultsText: TextView,
     ) {
+        // A single snapshot, so all the values below are consistent with each other
+        val report = slowFramesListener.getViewPerformanceReport()
         resultsText.text = ""
-        resultsText.append("Total Frames received: ${slowFramesListener.getViewPerformanceReport().slowFramesCount+slowFramesListener.getViewPerformanceReport().ignoredFramesCount}")
-        resultsText.append("\nTotal Slow Frames duration: ${slowFramesListener.getViewPerformanceReport().slowFramesDurationNs/ 1e6}")
-        resultsText.append("\nTotal Delay duration: ${slowFramesListener.getViewPerformanceReport().totalDelayDuration/1e6}")
+        if (report == null) {
+            resultsText.append("View shorter than the minimum view lifetime, no report")
+            return
+        }
+        resultsText.append(
+            "Total Frames received: " +
+                    "${report.slowFramesCount + report.ignoredFramesCount + report.freezeFramesCount}"
+        )
+        resultsText.append("\nTotal Slow Frames duration: ${report.slowFramesDurationNs / 1e6}")
+        resultsText.append("\nTotal Delay duration: ${report.totalDelayDuration/1e6}")
+        resultsText.append("\nTotal RenderThread/GPU Jank Frames: ${report.renderJankFramesCount}")
+        resultsText.append("\nTotal RenderThread/GPU Jank Delay duration: ${report.renderJankDelayDurationNs/1e6}")
+        resultsText.append("\nTotal Freezes: ${report.freezeFramesCount}")
+        resultsText.append("\nTotal Freeze duration: ${report.freezeDurationNs / 1e6}")
+        resultsText.append("\nSlow frames rate: ${"%.1f".format(report.slowFramesRate)} ms/s")
+        resultsText.append("\nFreeze rate: ${"%.1f".format(report.freezeRate)} s/h")
 
-        val slowFrameRecords = slowFramesListener.getViewPerformanceReport().slowFramesRecords
+        val slowFrameRecords = report.slowFramesRecords
         var frozenFramesCount = 0
         var slowFramesCount = 0
 
-        var i = 0
-        while (!slowFrameRecords.isEmpty()) {
-            i++
-            val slowFrameRecord = slowFrameRecords.remove()
-            if (slowFrameRecord != null) {
-                if (slowFrameRecord.isFrozen) {
-                    frozenFramesCount++
-                    resultsText.append("\nFrozen Frame $i :")
-                } else {
-                    slowFramesCount++
-                    resultsText.append("\nSlow Frame $i :")
-                }
-            }
-            if (slowFrameRecord != null) {
-                resultsText.append("\nstartTime: ${Date(slowFrameRecord.startTimestampMs)}")
-                resultsText.append("\nduration: ${slowFrameRecord.durationNs / 1e6}")
-
+        for (index in 0 until slowFrameRecords.size) {
+            val i = index + 1
+            val slowFrameRecord = SlowFrameRecord(
+                slowFrameRecords.startTimestampNsAt(index),
+                slowFrameRecords.durationNsAt(index)
+            )
+            if (slowFrameRecord.isFrozen) {
+                frozenFramesCount++
+                resultsText.append("\nFrozen Frame $i :")
+            } else {
+                slowFramesCount++
+                resultsText.append("\nSlow Frame $i :")
             }
+            resultsText.append("\nstartTime: ${Date(slowFrameRecord.startTimestampMs)}")
+            resultsText.append("\nduration: ${slowFrameRecord.durationNs / 1e6}")
         }
         resultsText.append("\nTotal Slow Frames: $slowFramesCount")
         resultsText.append("\nTotal Frozen Frames: $frozenFramesCount")
+        for (stateStats in uiStateFrameStats.getStateStats().sortedByDescending { it.delayDurationNs }) {
+            resultsText.append(
+                "\nState ${stateStats.state}: ${stateStats.framesCount} frames, " +
+                        "${stateStats.slowFramesCount} slow, delay ${stateStats.delayDurationNs / 1e6} ms"
+            )
+        }
     }
 
 
@@ -244,4 +355,10 @@ class MainActivity : AppCompatActivity() {
         super.onStop()
         activityFrameMetricsCollector.stopCollection(frameMetricsCollector)
     }
+
+    companion object {
+        private const val ANIMATION_STATE = "animating"
+        // the frames shown of a Sentry span, its totals count all of them
+        private const val MAX_SPAN_FRAMES = 100
+    }
 }
@@ -0,0 +1,213 @@
+package com.example.frames_demo.common.frame_calculations;
+
+import android.os.Build;
+import android.view.FrameMetrics;
+
+import androidx.annotation.RequiresApi;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A frame decoded from {@link FrameMetrics} into primitive values.
+ *
+ * <p>The {@link FrameSource} of a window reuses a single instance for all of its frames, so
+ * consumers must not keep a reference to it after {@link FrameSource.Consumer#onFrameSample}
+ * returned, and have to copy the values they need instead.
+ */
+public final class FrameSample {
+    public static final int STAGE_UNKNOWN_DELAY = 0;
+    public static final int STAGE_INPUT_HANDLING = 1;
+    public static final int STAGE_ANIMATION = 2;
+    public static final int STAGE_LAYOUT_MEASURE = 3;
+    public static final int STAGE_DRAW = 4;
+    public static final int STAGE_SYNC = 5;
+    public static final int STAGE_COMMAND_ISSUE = 6;
+    public static final int STAGE_SWAP_BUFFERS = 7;
+    // only available since Android S, 0 before
+    public static final int STAGE_GPU = 8;
+    public static final int STAGE_COUNT = 9;
+    // used when the stages of a frame are not known, i.e. before Android N
+    public static final int STAGE_NONE = -1;
+
+    private static final String[] STAGE_NAMES = {
+            "Unknown delay",
+            "Input handling",
+            "Animation",
+            "Layout & measure",
+            "Draw",
+            "Sync",
+            "Command issue",
+            "Swap buffers",
+            "GPU"
+    };
+
+    private final long[] stageDurationNanos = new long[STAGE_COUNT];
+    private int dominantUiStage = STAGE_NONE;
+    private int dominantRenderStage = STAGE_NONE;
+    private long uiDurationNanos;
+    private long totalDurationNanos;
+    private long overrunNanos;
+    private long intendedVsyncNanos;
+    private long frameBudgetNanos;
+    private long receivedAtNanos;
+
+    FrameSample() {
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    void decode(
+            final @NotNull FrameMetrics frameMetrics,
+            final long frameBudgetNanos,
+            final long receivedAtNanos) {
+        stageDurationNanos[STAGE_UNKNOWN_DELAY] =
+                frameMetrics.getMetric(FrameMetrics.UNKNOWN_DELAY_DURATION);
+        stageDurationNanos[STAGE_INPUT_HANDLING] =
+                frameMetrics.getMetric(FrameMetrics.INPUT_HANDLING_DURATION);
+        stageDurationNanos[STAGE_ANIMATION] =
+                frameMetrics.getMetric(FrameMetrics.ANIMATION_DURATION);
+        stageDurationNanos[STAGE_LAYOUT_MEASURE] =
+                frameMetrics.getMetric(FrameMetrics.LAYOUT_MEASURE_DURATION);
+        stageDurationNanos[STAGE_DRAW] = frameMetrics.getMetric(FrameMetrics.DRAW_DURATION);
+        stageDurationNanos[STAGE_SYNC] = frameMetrics.getMetric(FrameMetrics.SYNC_DURATION);
+        stageDurationNanos[STAGE_COMMAND_ISSUE] =
+                frameMetrics.getMetric(FrameMetrics.COMMAND_ISSUE_DURATION);
+        stageDurationNanos[STAGE_SWAP_BUFFERS] =
+                frameMetrics.getMetric(FrameMetrics.SWAP_BUFFERS_DURATION);
+        stageDurationNanos[STAGE_GPU] = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? frameMetrics.getMetric(FrameMetrics.GPU_DURATION)
+                : 0;
+        totalDurationNanos = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        intendedVsyncNanos = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? frameMetrics.getMetric(FrameMetrics.INTENDED_VSYNC_TIMESTAMP)
+                : -1;
+
+        // Inspired by JankStats
+        // https://cs.android.com/androidx/platform/frameworks/support/+/androidx-main:metrics/metrics-performance/src/main/java/androidx/metrics/performance/JankStatsApi24Impl.kt;l=74-79;drc=1de6215c6bd9e887e3d94556e9ac55cfb7b8c797
+        uiDurationNanos = stageDurationNanos[STAGE_UNKNOWN_DELAY]
+                + stageDurationNanos[STAGE_INPUT_HANDLING]
+                + stageDurationNanos[STAGE_ANIMATION]
+                + stageDurationNanos[STAGE_LAYOUT_MEASURE]
+                + stageDurationNanos[STAGE_DRAW]
+                + stageDurationNanos[STAGE_SYNC];
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                && frameMetrics.getMetric(FrameMetrics.DEADLINE) > 0) {
+            // the budget is the deadline of the frame, which the whole frame has to meet
+            overrunNanos = Math.max(0, totalDurationNanos - frameBudgetNanos);
+        } else {
+            // the budget is the refresh period, while the render thread and the gpu work on a
+            // frame in parallel to the main thread creating the next one, so the total duration
+            // would be late for most frames: only the render thread and the gpu each have to keep
+            // up with the refresh rate
+            final long renderThreadNanos = stageDurationNanos[STAGE_COMMAND_ISSUE]
+                    + stageDurationNanos[STAGE_SWAP_BUFFERS];
+            overrunNanos = Math.max(0,
+                    Math.max(renderThreadNanos, stageDurationNanos[STAGE_GPU]) - frameBudgetNanos);
+        }
+
+        // the stages up to sync are the ones of the main thread, as for the ui duration
+        dominantUiStage = longestStage(STAGE_UNKNOWN_DELAY, STAGE_SYNC);
+        dominantRenderStage = longestStage(STAGE_COMMAND_ISSUE, STAGE_GPU);
+        this.frameBudgetNanos = frameBudgetNanos;
+        this.receivedAtNanos = receivedAtNanos;
+    }
+
+    /**
+     * Returns the duration of the given stage in nanoseconds.
+     *
+     * @param stage one of the {@code STAGE_*} constants
+     */
+    public long getStageDurationNanos(final int stage) {
+        return stageDurationNanos[stage];
+    }
+
+    /**
+     * Returns the main thread stage which took the longest to create the frame, the cause of a
+     * frame over budget on the main thread, one of the {@code STAGE_*} constants.
+     */
+    public int getDominantUiStage() {
+        return dominantUiStage;
+    }
+
+    /**
+     * Returns the render thread or gpu stage which took the longest to create the frame, the cause
+     * of a frame {@link #getOverrunNanos() over budget} only after the main thread, one of the
+     * {@code STAGE_*} constants.
+     */
+    public int getDominantRenderStage() {
+        return dominantRenderStage;
+    }
+
+    private int longestStage(final int firstStage, final int lastStage) {
+        int longestStage = firstStage;
+        for (int stage = firstStage + 1; stage <= lastStage; stage++) {
+            if (stageDurationNanos[stage] > stageDurationNanos[longestStage]) {
+                longestStage = stage;
+            }
+        }
+        return longestStage;
+    }
+
+    /**
+     * Returns a readable name of the given stage.
+     *
+     * @param stage one of the {@code STAGE_*} constants
+     */
+    public static @NotNull String getStageName(final int stage) {
+        return stage >= 0 && stage < STAGE_COUNT ? STAGE_NAMES[stage] : "None";
+    }
+
+    /**
+     * Returns the time spent on the main thread to create the frame, without the time spent on
+     * the render thread and the gpu.
+     */
+    public long getUiDurationNanos() {
+        return uiDurationNanos;
+    }
+
+    /**
+     * Returns the total duration of the frame, from its intended vsync until it was presented.
+     */
+    public long getTotalDurationNanos() {
+        return totalDurationNanos;
+    }
+
+    /**
+     * Returns the time the frame took beyond its budget, render thread and gpu included, or 0 if it
+     * was on time. Since Android S this is the total duration beyond the deadline of the frame,
+     * before it's the time the render thread took beyond the refresh period.
+     */
+    public long getOverrunNanos() {
+        return overrunNanos;
+    }
+
+    /**
+     * Returns the intended vsync timestamp of the frame relative to System.nanoTime(), or -1 before
+     * Android O.
+     */
+    public long getIntendedVsyncNanos() {
+        return intendedVsyncNanos;
+    }
+
+    /**
+     * Returns the intended vsync timestamp if known, otherwise the moment the frame was received
+     * minus its ui duration.
+     */
+    public long getEstimatedStartNanos() {
+        return intendedVsyncNanos >= 0 ? intendedVsyncNanos : receivedAtNanos - uiDurationNanos;
+    }
+
+    /**
+     * Returns the budget of the frame as provided by the {@link RefreshRateTracker}.
+     */
+    public long getFrameBudgetNanos() {
+        return frameBudgetNanos;
+    }
+
+    /**
+     * Returns the moment the frame metrics were received, relative to System.nanoTime().
+     */
+    public long getReceivedAtNanos() {
+        return receivedAtNanos;
+    }
+}
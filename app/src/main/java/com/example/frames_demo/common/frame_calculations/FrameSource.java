@@ -0,0 +1,221 @@
+package com.example.frames_demo.common.frame_calculations;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Window;
+
+import androidx.annotation.ChecksSdkIntAtLeast;
+import androidx.annotation.RequiresApi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The single frame metrics listener of a window.
+ *
+ * <p>Each frame is decoded once into a reusable {@link FrameSample} and handed to all consumers, so
+ * the Sentry, Firebase and Datadog engines can record the same window side by side without
+ * registering one listener each. The listener is attached while the window has consumers.
+ *
+ * <p>All frame sources share one handler thread, which is started with the first attached listener
+ * or task and quit once the last one is detached and no task is pending.
+ */
+public final class FrameSource {
+
+    public interface Consumer {
+        /**
+         * Called on the frame source thread for every frame of the window.
+         *
+         * @param frameSample the decoded frame, only valid until this method returns
+         */
+        void onFrameSample(@NotNull FrameSample frameSample);
+    }
+
+    private static final @NotNull Map<Window, FrameSource> frameSources = new WeakHashMap<>();
+    private static @Nullable HandlerThread handlerThread;
+    private static @Nullable Handler handler;
+    // number of attached listeners and pending tasks using the handler thread
+    private static int attachedCount;
+
+    // weak, as the window is also the key of frameSources
+    private final @NotNull WeakReference<Window> windowRef;
+    private final @NotNull RefreshRateTracker refreshRateTracker;
+    private final @NotNull FrameSample frameSample = new FrameSample();
+    private final @NotNull Object lock = new Object();
+    private @Nullable Window.OnFrameMetricsAvailableListener frameMetricsAvailableListener;
+    // guarded by lock
+    private boolean isAttached;
+
+    // copied on write, so that the frame thread can iterate without locking or allocating
+    private volatile @NotNull Consumer[] consumers = new Consumer[0];
+
+    private FrameSource(final @NotNull Window window) {
+        this.windowRef = new WeakReference<>(window);
+        this.refreshRateTracker = RefreshRateTracker.getInstance(window.getContext());
+    }
+
+    /**
+     * Returns the frame source of the given window, creating it if needed.
+     */
+    public static @NotNull FrameSource forWindow(final @NotNull Window window) {
+        synchronized (frameSources) {
+            FrameSource frameSource = frameSources.get(window);
+            if (frameSource == null) {
+                frameSource = new FrameSource(window);
+                frameSources.put(window, frameSource);
+            }
+            return frameSource;
+        }
+    }
+
+    /**
+     * Returns true if frames can be delivered on this device, FrameMetrics is only available since
+     * Android N.
+     */
+    @ChecksSdkIntAtLeast(api = Build.VERSION_CODES.N)
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+    }
+
+    public void addConsumer(final @NotNull Consumer consumer) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+        synchronized (lock) {
+            final Consumer[] current = consumers;
+            for (Consumer c : current) {
+                if (c == consumer) {
+                    return;
+                }
+            }
+            final Consumer[] updated = new Consumer[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = consumer;
+            consumers = updated;
+            if (current.length == 0) {
+                attach();
+            }
+        }
+    }
+
+    public void removeConsumer(final @NotNull Consumer consumer) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            // consumers are never added
+            return;
+        }
+        synchronized (lock) {
+            final Consumer[] current = consumers;
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == consumer) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1) {
+                return;
+            }
+            final Consumer[] updated = new Consumer[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, updated.length - index);
+            consumers = updated;
+            if (updated.length == 0) {
+                detach();
+            }
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private void attach() {
+        if (frameMetricsAvailableListener == null) {
+            frameMetricsAvailableListener = (w, frameMetrics, dropCountSinceLastInvocation) -> {
+                final long now = System.nanoTime();
+                frameSample.decode(
+                        frameMetrics, refreshRateTracker.getFrameBudgetNanos(frameMetrics), now);
+                final Consumer[] current = consumers;
+                for (int i = 0; i < current.length; i++) {
+                    current[i].onFrameSample(frameSample);
+                }
+            };
+        }
+        final @Nullable Window window = windowRef.get();
+        if (window == null) {
+            return;
+        }
+        try {
+            window.addOnFrameMetricsAvailableListener(
+                    frameMetricsAvailableListener, acquireHandler());
+            isAttached = true;
+        } catch (IllegalStateException e) {
+            // thrown when the window is not hardware accelerated
+            Log.v("FrameSource", "Unable to track FrameMetrics of the window", e);
+            releaseHandler();
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private void detach() {
+        if (!isAttached) {
+            return;
+        }
+        isAttached = false;
+        final @Nullable Window window = windowRef.get();
+        if (window != null) {
+            try {
+                window.removeOnFrameMetricsAvailableListener(frameMetricsAvailableListener);
+            } catch (Exception e) {
+                Log.v("FrameSource", "Failed to remove frameMetricsAvailableListener", e);
+            }
+        }
+        releaseHandler();
+    }
+
+    /**
+     * Runs a task on the frame source thread, after the frames it already received. The thread is
+     * started if needed and kept alive until the task has run, even if all listeners are detached
+     * in the meantime.
+     *
+     * <p>A task reading the frames of a consumer has to be posted before the consumer is removed:
+     * removing the last consumer quits the thread, so a task posted afterwards would run on a new
+     * thread while the old one still delivers the frames it received.
+     */
+    public static void runOnFrameThread(final @NotNull Runnable task) {
+        acquireHandler().post(() -> {
+            try {
+                task.run();
+            } finally {
+                releaseHandler();
+            }
+        });
+    }
+
+    private static @NotNull Handler acquireHandler() {
+        synchronized (frameSources) {
+            if (handler == null) {
+                handlerThread = new HandlerThread("FrameSource");
+                handlerThread.start();
+                handler = new Handler(handlerThread.getLooper());
+            }
+            attachedCount++;
+            return handler;
+        }
+    }
+
+    private static void releaseHandler() {
+        synchronized (frameSources) {
+            attachedCount--;
+            if (attachedCount == 0 && handlerThread != null) {
+                // frames already posted by the window are still delivered
+                handlerThread.quitSafely();
+                handlerThread = null;
+                handler = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.frames_demo.common.frame_calculations;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Display;
+import android.view.FrameMetrics;
+
+import androidx.annotation.RequiresApi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide source of the frame budget, shared by the Sentry, Firebase and Datadog engines.
+ *
+ * <p>The refresh rate of the default display is read once and then only again when the display
+ * reports a change, so devices switching between 60/90/120 Hz are followed without querying the
+ * display for every frame. On Android S and above the budget of each individual frame is read from
+ * {@link FrameMetrics#DEADLINE} instead.
+ */
+public final class RefreshRateTracker implements DisplayManager.DisplayListener {
+    private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    private static volatile @Nullable RefreshRateTracker instance;
+
+    private final @Nullable DisplayManager displayManager;
+    private volatile float refreshRate = DEFAULT_REFRESH_RATE;
+    private volatile long frameBudgetNanos = toFrameBudgetNanos(DEFAULT_REFRESH_RATE);
+
+    private RefreshRateTracker(final @NotNull Context context) {
+        displayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        if (displayManager != null) {
+            updateRefreshRate();
+            // display changes are delivered on the main thread, the values are read from any thread
+            displayManager.registerDisplayListener(this, new Handler(Looper.getMainLooper()));
+        }
+    }
+
+    public static @NotNull RefreshRateTracker getInstance(final @NotNull Context context) {
+        RefreshRateTracker tracker = instance;
+        if (tracker == null) {
+            synchronized (RefreshRateTracker.class) {
+                tracker = instance;
+                if (tracker == null) {
+                    tracker = new RefreshRateTracker(context.getApplicationContext());
+                    instance = tracker;
+                }
+            }
+        }
+        return tracker;
+    }
+
+    /**
+     * Returns the last known refresh rate of the default display.
+     */
+    public float getRefreshRate() {
+        return refreshRate;
+    }
+
+    /**
+     * Returns the frame budget in nanoseconds based on the last known refresh rate.
+     */
+    public long getFrameBudgetNanos() {
+        return frameBudgetNanos;
+    }
+
+    /**
+     * Returns the budget of the given frame in nanoseconds. Since Android S this is the deadline
+     * the system assigned to the frame, otherwise the budget of the last known refresh rate.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    public long getFrameBudgetNanos(final @NotNull FrameMetrics frameMetrics) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            final long deadlineNanos = frameMetrics.getMetric(FrameMetrics.DEADLINE);
+            if (deadlineNanos > 0) {
+                return deadlineNanos;
+            }
+        }
+        return frameBudgetNanos;
+    }
+
+    public static long toFrameBudgetNanos(final float refreshRate) {
+        return (long) (ONE_SECOND_NANOS / refreshRate);
+    }
+
+    public static float toRefreshRate(final long frameBudgetNanos) {
+        return (float) ONE_SECOND_NANOS / frameBudgetNanos;
+    }
+
+    @Override
+    public void onDisplayAdded(int displayId) {
+    }
+
+    @Override
+    public void onDisplayRemoved(int displayId) {
+    }
+
+    @Override
+    public void onDisplayChanged(int displayId) {
+        if (displayId == Display.DEFAULT_DISPLAY) {
+            updateRefreshRate();
+        }
+    }
+
+    private void updateRefreshRate() {
+        if (displayManager == null) {
+            return;
+        }
+        final @Nullable Display display = displayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        if (display == null) {
+            return;
+        }
+        final float rate = display.getRefreshRate();
+        if (rate > 0) {
+            refreshRate = rate;
+            frameBudgetNanos = toFrameBudgetNanos(rate);
+        }
+    }
+}
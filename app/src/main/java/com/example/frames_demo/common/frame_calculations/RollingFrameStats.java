@@ -0,0 +1,214 @@
+package com.example.frames_demo.common.frame_calculations;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Frame statistics of the last seconds, e.g. the FPS and slow frame rate of the last 1, 10 and 60
+ * seconds, while a recording is still running.
+ *
+ * <p>Frames are counted in {@link #MAX_WINDOW_SECONDS} circular buckets of one second, indexed by
+ * the second the frame started in, so recording a frame is O(1) and the memory is fixed no matter
+ * how long the session is. A bucket is reset when it is reused for a newer second.
+ *
+ * <p>Frames are recorded by a single thread. Readers on any thread get a consistent {@link
+ * WindowStats}: the writer makes the version odd while updating a bucket, and a reader retries if
+ * the version was odd or changed while summing the buckets, so the writer never blocks.
+ */
+public final class RollingFrameStats {
+    public static final int MAX_WINDOW_SECONDS = 60;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The frames of a window of seconds.
+     */
+    public static final class WindowStats {
+        private final int seconds;
+        private final long frameCount;
+        private final long slowFrameCount;
+        private final long frozenFrameCount;
+        private final long delayNanos;
+
+        WindowStats(
+                final int seconds,
+                final long frameCount,
+                final long slowFrameCount,
+                final long frozenFrameCount,
+                final long delayNanos) {
+            this.seconds = seconds;
+            this.frameCount = frameCount;
+            this.slowFrameCount = slowFrameCount;
+            this.frozenFrameCount = frozenFrameCount;
+            this.delayNanos = delayNanos;
+        }
+
+        /**
+         * Returns the number of seconds covered, which is smaller than the requested window if
+         * frames have been recorded for a shorter time.
+         */
+        public int getSeconds() {
+            return seconds;
+        }
+
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        public long getSlowFrameCount() {
+            return slowFrameCount;
+        }
+
+        public long getFrozenFrameCount() {
+            return frozenFrameCount;
+        }
+
+        public long getDelayNanos() {
+            return delayNanos;
+        }
+
+        public float getFramesPerSecond() {
+            return seconds > 0 ? (float) frameCount / seconds : 0f;
+        }
+
+        /**
+         * Returns the share of slow frames, between 0 and 1.
+         */
+        public float getSlowFrameRate() {
+            return frameCount > 0 ? (float) slowFrameCount / frameCount : 0f;
+        }
+    }
+
+    // the second each bucket currently counts, -1 if the bucket was never used
+    private final @NotNull AtomicLongArray bucketSeconds = new AtomicLongArray(MAX_WINDOW_SECONDS);
+    private final @NotNull AtomicIntegerArray frameCounts =
+            new AtomicIntegerArray(MAX_WINDOW_SECONDS);
+    private final @NotNull AtomicIntegerArray slowFrameCounts =
+            new AtomicIntegerArray(MAX_WINDOW_SECONDS);
+    private final @NotNull AtomicIntegerArray frozenFrameCounts =
+            new AtomicIntegerArray(MAX_WINDOW_SECONDS);
+    private final @NotNull AtomicLongArray delayNanos = new AtomicLongArray(MAX_WINDOW_SECONDS);
+
+    // odd while the writer is updating a bucket
+    private volatile long version;
+    private volatile long firstSecond = -1;
+
+    public RollingFrameStats() {
+        for (int i = 0; i < MAX_WINDOW_SECONDS; i++) {
+            bucketSeconds.set(i, -1);
+        }
+    }
+
+    /**
+     * Records a frame, always from the same thread.
+     *
+     * @param frameStartNanos the start of the frame, with the System.nanoTime() time base
+     */
+    public void record(
+            final long frameStartNanos,
+            final long frameDelayNanos,
+            final boolean isSlow,
+            final boolean isFrozen) {
+        final long second = frameStartNanos / NANOS_PER_SECOND;
+        final int bucket = (int) (second % MAX_WINDOW_SECONDS);
+        final long bucketSecond = bucketSeconds.get(bucket);
+        if (bucketSecond > second) {
+            // the frame is older than the whole window
+            return;
+        }
+
+        version++;
+        if (bucketSecond != second) {
+            bucketSeconds.lazySet(bucket, second);
+            frameCounts.lazySet(bucket, 0);
+            slowFrameCounts.lazySet(bucket, 0);
+            frozenFrameCounts.lazySet(bucket, 0);
+            delayNanos.lazySet(bucket, 0);
+        }
+        frameCounts.lazySet(bucket, frameCounts.get(bucket) + 1);
+        if (isSlow) {
+            slowFrameCounts.lazySet(bucket, slowFrameCounts.get(bucket) + 1);
+        }
+        if (isFrozen) {
+            frozenFrameCounts.lazySet(bucket, frozenFrameCounts.get(bucket) + 1);
+        }
+        delayNanos.lazySet(bucket, delayNanos.get(bucket) + frameDelayNanos);
+        if (firstSecond < 0) {
+            firstSecond = second;
+        }
+        version++;
+    }
+
+    /**
+     * Forgets all recorded frames, from the thread recording them.
+     */
+    public void clear() {
+        version++;
+        for (int i = 0; i < MAX_WINDOW_SECONDS; i++) {
+            bucketSeconds.lazySet(i, -1);
+        }
+        firstSecond = -1;
+        version++;
+    }
+
+    /**
+     * Returns the frames of the last complete seconds.
+     *
+     * @param seconds the size of the window, from 1 to {@link #MAX_WINDOW_SECONDS}
+     */
+    public @NotNull WindowStats getWindow(final int seconds) {
+        return getWindow(seconds, System.nanoTime());
+    }
+
+    /**
+     * Returns the frames of the complete seconds before the one of nowNanos. The current second is
+     * left out, so the frame rate isn't skewed by a partial bucket.
+     *
+     * @param seconds the size of the window, from 1 to {@link #MAX_WINDOW_SECONDS}
+     */
+    public @NotNull WindowStats getWindow(final int seconds, final long nowNanos) {
+        if (seconds < 1 || seconds > MAX_WINDOW_SECONDS) {
+            throw new IllegalArgumentException(
+                    "The window must be between 1 and " + MAX_WINDOW_SECONDS + " seconds");
+        }
+        final long lastSecond = nowNanos / NANOS_PER_SECOND - 1;
+        while (true) {
+            final long versionBefore = version;
+            if ((versionBefore & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            final long first = firstSecond;
+            if (first < 0 || first > lastSecond) {
+                return new WindowStats(0, 0, 0, 0, 0);
+            }
+            final long firstWindowSecond = Math.max(first, lastSecond - seconds + 1);
+            long frames = 0;
+            long slowFrames = 0;
+            long frozenFrames = 0;
+            long delay = 0;
+            for (long second = firstWindowSecond; second <= lastSecond; second++) {
+                final int bucket = (int) (second % MAX_WINDOW_SECONDS);
+                if (bucketSeconds.get(bucket) != second) {
+                    // no frame in this second
+                    continue;
+                }
+                frames += frameCounts.get(bucket);
+                slowFrames += slowFrameCounts.get(bucket);
+                frozenFrames += frozenFrameCounts.get(bucket);
+                delay += delayNanos.get(bucket);
+            }
+            if (version == versionBefore) {
+                return new WindowStats(
+                        (int) (lastSecond - firstWindowSecond + 1),
+                        frames,
+                        slowFrames,
+                        frozenFrames,
+                        delay);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.frames_demo.common.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide conversion of System.nanoTime() timestamps to wall clock time, shared by the
+ * Sentry, Firebase and Datadog engines so their timestamps are consistent with each other.
+ *
+ * <p>A wall clock/monotonic pair is captured once, and timestamps are converted with its offset,
+ * without reading either clock. The pair is captured again at most every {@link
+ * #REANCHOR_INTERVAL_NANOS}, when a converted timestamp is past the interval. The wall clock
+ * drifts from the monotonic clock, e.g. when it is adjusted by NTP, so the offset is corrected
+ * when re-anchoring, by at most {@link #MAX_DRIFT_CORRECTION_NANOS} each time to keep converted
+ * timestamps from jumping. A difference larger than {@link #MAX_DRIFT_NANOS} is a change of the
+ * wall clock rather than a drift, and the offset is reset to it right away.
+ */
+public final class ClockAnchor {
+    public static final long REANCHOR_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    public static final long MAX_DRIFT_CORRECTION_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    public static final long MAX_DRIFT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long NANOS_PER_MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final @NotNull ClockAnchor instance = new ClockAnchor();
+
+    private static final class Anchor {
+        // epoch nanoseconds minus System.nanoTime()
+        final long offsetNanos;
+        // System.nanoTime() the anchor was captured at
+        final long anchoredAtNanos;
+
+        Anchor(final long offsetNanos, final long anchoredAtNanos) {
+            this.offsetNanos = offsetNanos;
+            this.anchoredAtNanos = anchoredAtNanos;
+        }
+    }
+
+    private final @NotNull AtomicReference<Anchor> anchor;
+
+    private ClockAnchor() {
+        final long nowNanos = System.nanoTime();
+        anchor = new AtomicReference<>(
+                new Anchor(readOffsetNanos(nowNanos), nowNanos));
+    }
+
+    public static @NotNull ClockAnchor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Converts a System.nanoTime() timestamp to nanoseconds since the epoch.
+     */
+    public long toEpochNanos(final long nanoTime) {
+        Anchor current = anchor.get();
+        if (nanoTime - current.anchoredAtNanos > REANCHOR_INTERVAL_NANOS) {
+            current = reanchor(current);
+        }
+        return nanoTime + current.offsetNanos;
+    }
+
+    /**
+     * Converts a System.nanoTime() timestamp to milliseconds since the epoch.
+     */
+    public long toEpochMillis(final long nanoTime) {
+        return toEpochNanos(nanoTime) / NANOS_PER_MS;
+    }
+
+    /**
+     * Returns the current wall clock time in milliseconds, consistent with the converted
+     * timestamps.
+     */
+    public long currentTimeMillis() {
+        return toEpochMillis(System.nanoTime());
+    }
+
+    private @NotNull Anchor reanchor(final @NotNull Anchor current) {
+        final long nowNanos = System.nanoTime();
+        final long driftNanos = readOffsetNanos(nowNanos) - current.offsetNanos;
+        final long correctionNanos;
+        if (Math.abs(driftNanos) > MAX_DRIFT_NANOS) {
+            correctionNanos = driftNanos;
+        } else {
+            correctionNanos = Math.max(
+                    -MAX_DRIFT_CORRECTION_NANOS, Math.min(MAX_DRIFT_CORRECTION_NANOS, driftNanos));
+        }
+        final Anchor updated = new Anchor(current.offsetNanos + correctionNanos, nowNanos);
+        // another thread may have re-anchored in the meantime, its anchor is as good as ours
+        return anchor.compareAndSet(current, updated) ? updated : anchor.get();
+    }
+
+    private static long readOffsetNanos(final long nowNanos) {
+        return System.currentTimeMillis() * NANOS_PER_MS - nowNanos;
+    }
+}
@@ -1,11 +1,11 @@
 package com.example.frames_demo.datadog.frame_calculation
 
-import android.os.Build
-import android.util.Log
 import android.view.Window
 import androidx.metrics.performance.FrameData
-import java.util.concurrent.TimeUnit
-import kotlin.math.max
+import com.example.frames_demo.common.frame_calculations.FrameSample
+import com.example.frames_demo.common.frame_calculations.RefreshRateTracker
+import com.example.frames_demo.common.frame_calculations.RollingFrameStats
+import com.example.frames_demo.common.utils.ClockAnchor
 import kotlin.math.min
 
 internal class DefaultSlowFramesListener(
@@ -13,86 +13,207 @@ internal class DefaultSlowFramesListener(
     private val configuration: SlowFramesConfiguration,
 ) : FrameStateListener {
 
-    private val expectedDuration = run {
-        val refreshRate =
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
-                window.context.display.refreshRate
-            else
-                window.windowManager.defaultDisplay.refreshRate
-        return@run TimeUnit.SECONDS.toNanos(1)/refreshRate
-    }
-    private var uiPerformanceReport: ViewUIPerformanceReport? = null
-    private var startTimeMs: Long = 0
+    private val refreshRateTracker = RefreshRateTracker.getInstance(window.context)
+    // Reused for every view and only written by the frame thread, which resets it in place once it
+    // sees a frame of a new view, so short-lived views don't allocate a report each
+    private val uiPerformanceReport = ViewUIPerformanceReport(configuration.maxSlowFramesAmount)
+    // incremented on the main thread for every new view, starting from NO_VIEW_ID
+    @Volatile
+    private var viewId: Long = NO_VIEW_ID
+    @Volatile
+    private var viewStartNanos: Long = 0L
+    @Volatile
+    private var startTimeMs: Long = 0L
+    @Volatile
+    private var endTimeMs: Long = 0L
+    // set once a view ended before the minimum view lifetime, cleared after viewId was incremented
+    // for the next view, so the frame thread never records a frame of a new view into the previous
+    // one
+    @Volatile
+    private var isViewDropped = false
+    // the frames of the last seconds of the current view, reset with the report, but not when the
+    // monitor of the view restarts
+    private val rollingFrameStats = RollingFrameStats()
 
     override fun onStartMonitor(resumed: Boolean) {
         if (!resumed) {
-            uiPerformanceReport = null
-            startTimeMs = System.currentTimeMillis()
+            viewStartNanos = System.nanoTime()
+            startTimeMs = ClockAnchor.getInstance().toEpochMillis(viewStartNanos)
+            endTimeMs = 0L
+            viewId++
+            isViewDropped = false
         }
     }
 
     override fun onStopMonitor(end: Boolean) {
         if (end) {
-            uiPerformanceReport?.startTimeMs = startTimeMs
-            uiPerformanceReport?.endTimeMs = System.currentTimeMillis()
+            val viewEndNanos = System.nanoTime()
+            endTimeMs = ClockAnchor.getInstance().toEpochMillis(viewEndNanos)
+            if (viewEndNanos - viewStartNanos < configuration.minViewLifetimeThresholdNs) {
+                // Too short to be meaningful, the report and the rolling stats are reset by the
+                // frame thread and reused by the next view
+                isViewDropped = true
+            }
         }
     }
 
-
     // Called from the background thread
     override fun onFrame(volatileFrameData: FrameData) {
-        val frameDurationNs = volatileFrameData.frameDurationUiNanos.toFloat()
-        val frameStartedTimestampNs = volatileFrameData.frameStartNanos
-        val report = getViewPerformanceReport()
-        Log.d("onFrame", "frameDurationNs: ${frameDurationNs/1e6}")
-
-        // We have to synchronize here because it's the only way to update
-        // all fields of ViewUIPerformanceReport atomically. onFrame is a "hot" method
-        // so we can't make ViewUIPerformanceReport immutable because that will force us to
-        // create tons of copies on each call which will lead to a lot of gc calls
-        synchronized(report) {
-            // Updating frames statistics
-            report.totalFramesDurationNs += frameDurationNs
-
-            if (frameDurationNs < expectedDuration) {
-                report.ignoredFramesCount += 1
-                return
+        onFrame(
+            volatileFrameData.frameStartNanos,
+            volatileFrameData.frameDurationUiNanos,
+            volatileFrameData.getExpectedDurationNs(refreshRateTracker),
+            volatileFrameData.getOverrunNs()
+        )
+    }
+
+    // Called from the frame source thread
+    override fun onFrameSample(frameSample: FrameSample) {
+        onFrame(
+            frameSample.estimatedStartNanos,
+            frameSample.uiDurationNanos,
+            frameSample.frameBudgetNanos,
+            frameSample.overrunNanos
+        )
+    }
+
+    private fun onFrame(
+        frameStartNanos: Long,
+        frameDurationNs: Long,
+        expectedDuration: Long,
+        frameOverrunNs: Long
+    ) {
+        // The frame thread is the only writer of the report, readers take a snapshot of it
+        // instead of locking it on every frame
+        val report = uiPerformanceReport
+        // read before viewId, which is incremented before the flag is cleared for a new view
+        val isDropped = isViewDropped
+        val currentViewId = viewId
+        if (isDropped) {
+            if (report.viewId == currentViewId) {
+                // the frames of a dropped view are not inherited by the next one
+                resetView(report, NO_VIEW_ID)
             }
+            return
+        }
+        if (report.viewId != currentViewId) {
+            resetView(report, currentViewId)
+        }
 
-            report.slowFramesDurationNs += frameDurationNs
-            report.totalDelayDuration += (frameDurationNs - expectedDuration)
-
-            val previousSlowFrameRecord = report.lastSlowFrameRecord
-            val delaySinceLastUpdate = frameStartedTimestampNs -
-                    (previousSlowFrameRecord?.startTimestampNs ?: frameStartedTimestampNs)
-            if (previousSlowFrameRecord == null ||
-                delaySinceLastUpdate > configuration.continuousSlowFrameThresholdNs
-            ) {
-                // No previous slow frame record or amount of time since the last update
-                // is significant enough to consider it idle - adding a new slow frame record.
-                if (frameDurationNs > 0) {
-                    report.slowFramesRecords += SlowFrameRecord(
-                        frameStartedTimestampNs,
-                        frameDurationNs
-                    )
-                }
-            } else {
-                // It's a continuous slow frame – increasing duration
-                previousSlowFrameRecord.durationNs = min(
-                    previousSlowFrameRecord.durationNs + frameDurationNs,
-                    configuration.maxSlowFrameThresholdNs.toFloat() - 1
-                )
+        val isSlow = frameDurationNs >= expectedDuration
+        rollingFrameStats.record(
+            frameStartNanos,
+            if (isSlow) frameDurationNs - expectedDuration else 0L,
+            isSlow,
+            frameDurationNs > configuration.maxSlowFrameThresholdNs
+        )
+        report.beginUpdate()
+        try {
+            updateReport(report, frameStartNanos, frameDurationNs, expectedDuration, frameOverrunNs)
+        } finally {
+            report.endUpdate()
+        }
+    }
+
+    private fun resetView(report: ViewUIPerformanceReport, viewId: Long) {
+        report.beginUpdate()
+        try {
+            report.reset(viewId)
+        } finally {
+            report.endUpdate()
+        }
+        rollingFrameStats.clear()
+    }
+
+    private fun updateReport(
+        report: ViewUIPerformanceReport,
+        frameStartedTimestampNs: Long,
+        frameDurationNs: Long,
+        expectedDuration: Long,
+        frameOverrunNs: Long
+    ) {
+        // Updating frames statistics
+        report.totalFramesDurationNs += frameDurationNs
+
+        if (frameDurationNs < expectedDuration) {
+            // On time on the UI thread, but the frame can still miss its deadline
+            // because of the RenderThread or the GPU
+            if (frameOverrunNs > 0) {
+                report.renderJankFramesCount += 1
+                report.renderJankDelayDurationNs += frameOverrunNs
+            }
+            report.ignoredFramesCount += 1
+            return
+        }
+
+        if (frameDurationNs >= configuration.freezeDurationThresholdNs) {
+            // A freeze is reported on its own rather than as a slow frame
+            report.freezeFramesCount += 1
+            report.freezeDurationNs += frameDurationNs
+            return
+        }
+
+        report.slowFramesCount += 1
+        report.slowFramesDurationNs += frameDurationNs
+        report.totalDelayDuration += (frameDurationNs - expectedDuration)
+
+        val slowFramesRecords = report.slowFramesRecords
+        val lastIndex = slowFramesRecords.size - 1
+        val delaySinceLastUpdate = if (lastIndex >= 0) {
+            frameStartedTimestampNs - slowFramesRecords.startTimestampNsAt(lastIndex)
+        } else {
+            0L
+        }
+        if (lastIndex < 0 ||
+            delaySinceLastUpdate > configuration.continuousSlowFrameThresholdNs
+        ) {
+            // No previous slow frame record or amount of time since the last update
+            // is significant enough to consider it idle - adding a new slow frame record.
+            if (frameDurationNs > 0) {
+                slowFramesRecords.add(frameStartedTimestampNs, frameDurationNs)
             }
+        } else {
+            // It's a continuous slow frame – increasing duration of the last record in place
+            slowFramesRecords.setLastDurationNs(
+                min(
+                    slowFramesRecords.durationNsAt(lastIndex) + frameDurationNs,
+                    configuration.maxSlowFrameThresholdNs - 1
+                )
+            )
         }
     }
 
-    fun getViewPerformanceReport(): ViewUIPerformanceReport {
-        if (uiPerformanceReport != null) {
-            return uiPerformanceReport!!
+    /**
+     * Returns the frames of the last seconds of the current view, which can be read on any thread
+     * while monitoring.
+     */
+    fun getRollingFrameStats(): RollingFrameStats = rollingFrameStats
+
+    /**
+     * Returns a consistent snapshot of the report of the current view, which can be read on any
+     * thread. Taking it neither blocks the frame thread nor consumes the slow frame records.
+     *
+     * @return null if the view ended before the minimum view lifetime
+     */
+    fun getViewPerformanceReport(): ViewUIPerformanceReport? {
+        if (isViewDropped) {
+            return null
         }
-        uiPerformanceReport = ViewUIPerformanceReport(
-            configuration.maxSlowFramesAmount,
-        )
-        return uiPerformanceReport!!
+        val currentViewId = viewId
+        val snapshot = uiPerformanceReport.snapshot()
+        val report = if (snapshot.viewId == currentViewId) {
+            snapshot
+        } else {
+            // no frame of the current view was recorded yet
+            ViewUIPerformanceReport(0)
+        }
+        report.startTimeMs = startTimeMs
+        report.endTimeMs = endTimeMs
+        return report
+    }
+
+    companion object {
+        // the view id of a report without frames of any view
+        private const val NO_VIEW_ID = 0L
     }
-}
\ No newline at end of file
+}
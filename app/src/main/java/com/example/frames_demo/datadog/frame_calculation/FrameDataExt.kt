@@ -0,0 +1,32 @@
+package com.example.frames_demo.datadog.frame_calculation
+
+import androidx.metrics.performance.FrameData
+import androidx.metrics.performance.FrameDataApi31
+import com.example.frames_demo.common.frame_calculations.RefreshRateTracker
+import kotlin.math.max
+
+/**
+ * Returns the budget of the frame, falling back to the current refresh rate before API 31.
+ */
+internal fun FrameData.getExpectedDurationNs(refreshRateTracker: RefreshRateTracker): Long {
+    if (this is FrameDataApi31) {
+        // JankStats reports the overrun against the deadline of the frame,
+        // which gives us the budget of this very frame
+        val deadlineNs = frameDurationTotalNanos - frameOverrunNanos
+        if (deadlineNs > 0) {
+            return deadlineNs
+        }
+    }
+    return refreshRateTracker.frameBudgetNanos
+}
+
+/**
+ * Returns how late the frame was presented, or 0 if it's unknown.
+ */
+internal fun FrameData.getOverrunNs(): Long {
+    // Before API 31 JankStats doesn't report the total duration of the frame
+    if (this is FrameDataApi31) {
+        return max(0L, frameOverrunNanos)
+    }
+    return 0L
+}
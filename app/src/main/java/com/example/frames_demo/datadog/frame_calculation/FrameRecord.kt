@@ -1,17 +1,17 @@
 package com.example.frames_demo.datadog.frame_calculation
 
-import java.util.concurrent.TimeUnit
+import com.example.frames_demo.common.utils.ClockAnchor
 
 internal data class SlowFrameRecord(
     val startTimestampNs: Long,
-    var durationNs: Float,
+    var durationNs: Long,
 ) {
     override fun toString(): String {
         return "${durationNs / NS_IN_MS}ms"
     }
 
     val startTimestampMs: Long
-        get() = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimestampNs)
+        get() = ClockAnchor.getInstance().toEpochMillis(startTimestampNs)
 
     val isFrozen: Boolean
         get() = durationNs > 700_000_000
@@ -1,8 +1,9 @@
 package com.example.frames_demo.datadog.frame_calculation
 
 import androidx.metrics.performance.JankStats
+import com.example.frames_demo.common.frame_calculations.FrameSource
 
-internal interface FrameStateListener : JankStats.OnFrameListener {
+internal interface FrameStateListener : JankStats.OnFrameListener, FrameSource.Consumer {
     fun onStartMonitor(resumed: Boolean) {}
     fun onStopMonitor(end: Boolean) {}
 }
\ No newline at end of file
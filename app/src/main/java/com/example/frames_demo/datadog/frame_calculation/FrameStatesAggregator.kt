@@ -1,79 +1,158 @@
 package com.example.frames_demo.datadog.frame_calculation
 
 import android.util.Log
+import android.view.View
 import android.view.Window
 import androidx.annotation.MainThread
 import androidx.metrics.performance.FrameData
 import androidx.metrics.performance.JankStats
+import com.example.frames_demo.common.frame_calculations.FrameSample
+import com.example.frames_demo.common.frame_calculations.FrameSource
 import com.example.frames_demo.datadog.providers.JankStatsProvider
+import java.lang.ref.WeakReference
 import java.util.WeakHashMap
 
+/**
+ * Dispatches the frames of the tracked windows to their [FrameStateListener]s.
+ *
+ * Several windows can be tracked at once, e.g. an activity and its dialogs, bottom sheets and
+ * popups, each with its own listeners, so the frames of a window only reach the listeners of that
+ * window. Frames come from a single [JankStats] instance per window, which is reused when tracking
+ * resumes, or from the shared [FrameSource] of the window when [useFrameSource] is set, which
+ * avoids another frame listener when other engines record the same window.
+ *
+ * A window stops being tracked, and its frame listener is released, when [stopTracking] is called
+ * or when its decor view is detached, whichever comes first. A window which is never detached nor
+ * stopped doesn't leak either: its tracker is only held by its decor view.
+ */
 internal class FrameStatesAggregator(
     private val frameStateListeners: List<FrameStateListener>,
     private val jankStatsProvider: JankStatsProvider = JankStatsProvider.DEFAULT,
-) : JankStats.OnFrameListener {
+    private val useFrameSource: Boolean = false,
+) {
 
-    private val activeWindowsListener = WeakHashMap<Window, JankStats>()
+    private inner class WindowTracker(
+        window: Window,
+        // replaced rather than modified, as it's read by the frame thread
+        @Volatile var listeners: List<FrameStateListener>,
+    ) : JankStats.OnFrameListener, FrameSource.Consumer, View.OnAttachStateChangeListener {
 
+        private val windowReference = WeakReference(window)
+
+        // holds the window, which is fine as long as the tracker is only held by the window
+        var jankStats: JankStats? = null
+
+        override fun onFrame(volatileFrameData: FrameData) {
+            val listeners = listeners
+            // This method is called pretty often and forEach{} gonna create iterator instance each time.
+            // To reduce gc pressure we use for-loop iteration here:
+            for (i in listeners.indices) {
+                listeners[i].onFrame(volatileFrameData)
+            }
+        }
+
+        override fun onFrameSample(frameSample: FrameSample) {
+            val listeners = listeners
+            for (i in listeners.indices) {
+                listeners[i].onFrameSample(frameSample)
+            }
+        }
+
+        override fun onViewAttachedToWindow(v: View) {
+        }
+
+        override fun onViewDetachedFromWindow(v: View) {
+            windowReference.get()?.let { stopTracking(it) }
+        }
+    }
+
+    // The trackers are held by the decor views of their windows, as their attach state listeners,
+    // and only weakly here, since a value holding its key would never let the entry be collected
+    private val windowTrackers = WeakHashMap<Window, WeakReference<WindowTracker>>()
+
+    /**
+     * Starts or resumes tracking the frames of a window.
+     *
+     * @param listeners the listeners of the frames of this window, the listeners of the
+     * aggregator by default; if the window is already tracked, the listeners it isn't tracked
+     * with yet are added to the ones of the window
+     */
     @MainThread
-    fun startTracking(window: Window) {
-        trackWindowJankStats(window)
+    fun startTracking(
+        window: Window,
+        listeners: List<FrameStateListener> = frameStateListeners,
+    ) {
+        val knownTracker = windowTrackers[window]?.get()
+        val tracker = knownTracker ?: WindowTracker(window, listeners).also {
+            windowTrackers[window] = WeakReference(it)
+            window.decorView.addOnAttachStateChangeListener(it)
+        }
+        val knownListeners = if (knownTracker != null) knownTracker.listeners else emptyList()
+        if (knownTracker != null) {
+            val addedListeners = listeners.filter { it !in knownListeners }
+            if (addedListeners.isNotEmpty()) {
+                tracker.listeners = knownListeners + addedListeners
+            }
+        }
+        for (listener in tracker.listeners) {
+            listener.onStartMonitor(listener in knownListeners)
+        }
+        if (useFrameSource) {
+            FrameSource.forWindow(window).addConsumer(tracker)
+        } else {
+            trackWindowJankStats(window, tracker)
+        }
     }
 
     @MainThread
     fun pauseTracking(window: Window) {
-        activeWindowsListener[window]?.let {
+        val tracker = windowTrackers[window]?.get() ?: return
+        if (useFrameSource) {
+            FrameSource.forWindow(window).removeConsumer(tracker)
+        }
+        tracker.jankStats?.let {
             if (it.isTrackingEnabled) {
                 it.isTrackingEnabled = false
             }
         }
-        for (i in frameStateListeners.indices) {
-            frameStateListeners[i].onStopMonitor(false)
+        for (i in tracker.listeners.indices) {
+            tracker.listeners[i].onStopMonitor(false)
         }
     }
 
     @MainThread
     fun stopTracking(window: Window) {
-        activeWindowsListener.remove(window)?.let {
-            it.isTrackingEnabled = false
+        val tracker = windowTrackers.remove(window)?.get() ?: return
+        window.decorView.removeOnAttachStateChangeListener(tracker)
+        if (useFrameSource) {
+            FrameSource.forWindow(window).removeConsumer(tracker)
         }
-        for (i in frameStateListeners.indices) {
-            frameStateListeners[i].onStopMonitor(true)
+        // Disabling tracking removes the frame listener of JankStats from the window, and the
+        // instance is dropped with the tracker
+        tracker.jankStats?.isTrackingEnabled = false
+        tracker.jankStats = null
+        for (i in tracker.listeners.indices) {
+            tracker.listeners[i].onStopMonitor(true)
         }
     }
 
-    // endregion
-
-    // region JankStats.OnFrameListener
-
-    override fun onFrame(volatileFrameData: FrameData) {
-        // This method is called pretty often and forEach{} gonna create iterator instance each time.
-        // To reduce gc pressure we use for-loop iteration here:
-        volatileFrameData.isJank
-        for (i in frameStateListeners.indices) {
-            frameStateListeners[i].onFrame(volatileFrameData)
-        }
-    }
+    @MainThread
+    fun isTracking(window: Window): Boolean = windowTrackers[window]?.get() != null
 
     @MainThread
-    private fun trackWindowJankStats(window: Window) {
-        val knownJankStats = activeWindowsListener[window]
-        for (i in frameStateListeners.indices) {
-            frameStateListeners[i].onStartMonitor(knownJankStats != null)
-        }
+    private fun trackWindowJankStats(window: Window, tracker: WindowTracker) {
+        val knownJankStats = tracker.jankStats
         if (knownJankStats != null) {
             Log.v("trackWindowJankStats", "Resuming jankStats for window $window")
             knownJankStats.isTrackingEnabled = true
-        } else {
-            Log.v("trackWindowJankStats", "starting jankStats for window ")
+            return
         }
-        val jankStats = jankStatsProvider.createJankStatsAndTrack(window, this)
+        Log.v("trackWindowJankStats", "starting jankStats for window $window")
+        val jankStats = jankStatsProvider.createJankStatsAndTrack(window, tracker)
         if (jankStats == null) {
             Log.v("trackWindowJankStats", "Unable to create JankStats")
         } else {
-            activeWindowsListener[window] = jankStats
+            tracker.jankStats = jankStats
         }
     }
-
-    // endregion
-}
\ No newline at end of file
+}
@@ -0,0 +1,77 @@
+package com.example.frames_demo.datadog.frame_calculation
+
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.math.max
+
+/**
+ * Bounded ring of slow frame records, stored in preallocated primitive slots.
+ *
+ * Once [maxSize] records are held, adding a record overwrites the oldest one, so recording slow
+ * frames never allocates. Records are addressed from 0 (the oldest) to [size] - 1 (the latest).
+ *
+ * The ring has a single writer. Slots are written with ordered stores, so a reader on another
+ * thread validating its reads with the version of the [ViewUIPerformanceReport] never misses a
+ * concurrent write.
+ */
+internal class SlowFramesRing(maxSize: Int) {
+
+    private val capacity: Int = max(0, maxSize)
+    private val startTimestampsNs = AtomicLongArray(capacity)
+    private val durationsNs = AtomicLongArray(capacity)
+
+    // slot of the oldest record
+    @Volatile
+    private var head = 0
+
+    @Volatile
+    var size: Int = 0
+        private set
+
+    fun isEmpty() = size == 0
+
+    /**
+     * Adds a record, evicting the oldest one if the ring is full.
+     */
+    fun add(startTimestampNs: Long, durationNs: Long) {
+        if (capacity == 0) return
+        val slot: Int
+        if (size < capacity) {
+            slot = slot(size)
+            size++
+        } else {
+            slot = head
+            head = (head + 1) % capacity
+        }
+        startTimestampsNs.lazySet(slot, startTimestampNs)
+        durationsNs.lazySet(slot, durationNs)
+    }
+
+    fun startTimestampNsAt(index: Int): Long = startTimestampsNs.get(slot(index))
+
+    fun durationNsAt(index: Int): Long = durationsNs.get(slot(index))
+
+    /**
+     * Updates the duration of the latest record in place, used to merge continuous slow frames.
+     */
+    fun setLastDurationNs(durationNs: Long) {
+        durationsNs.lazySet(slot(size - 1), durationNs)
+    }
+
+    /**
+     * Returns a copy holding the same records, with the same capacity.
+     */
+    fun copy(): SlowFramesRing {
+        val copy = SlowFramesRing(capacity)
+        for (index in 0 until size) {
+            copy.add(startTimestampNsAt(index), durationNsAt(index))
+        }
+        return copy
+    }
+
+    fun clear() {
+        head = 0
+        size = 0
+    }
+
+    private fun slot(index: Int) = (head + index) % capacity
+}
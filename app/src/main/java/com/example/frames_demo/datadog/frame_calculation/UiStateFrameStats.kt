@@ -0,0 +1,180 @@
+package com.example.frames_demo.datadog.frame_calculation
+
+import android.view.Window
+import androidx.metrics.performance.FrameData
+import androidx.metrics.performance.StateInfo
+import com.example.frames_demo.common.frame_calculations.FrameSample
+import com.example.frames_demo.common.frame_calculations.RefreshRateTracker
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Attributes the frames of a window to the UI states active while they were rendered, e.g.
+ * `screen=Feed` or `scrolling=true`, to find the interaction behind slow frames.
+ *
+ * Each state is interned once into an index through an open addressing table of a fixed capacity,
+ * and its statistics are held in primitive columns, so looking up and updating the states of a
+ * frame doesn't allocate. Once [maxStates] states are known, frames of new states are counted
+ * under [OTHER_STATES].
+ *
+ * Frames are recorded by a single thread. Like [ViewUIPerformanceReport], updates are published
+ * through a version counter, and [getStateStats] never blocks the frame thread.
+ *
+ * @param uiStates the states of the frames which don't carry their own, i.e. the frames of the
+ * FrameSource, or of JankStats before the states were put in its PerformanceMetricsState
+ */
+internal class UiStateFrameStats(
+    window: Window,
+    private val uiStates: UiStates? = null,
+    private val maxStates: Int = DEFAULT_MAX_STATES,
+) : FrameStateListener {
+
+    class StateStats(
+        val state: String,
+        val framesCount: Long,
+        val slowFramesCount: Long,
+        val framesDurationNs: Long,
+        val delayDurationNs: Long,
+    )
+
+    private val refreshRateTracker = RefreshRateTracker.getInstance(window.context)
+
+    // open addressing table of the state index + 1 by hash of key and value, 0 if the slot is
+    // empty, at most half full; only accessed by the frame thread
+    private val stateTable = IntArray(tableSizeFor(maxStates))
+    private val stateKeys = arrayOfNulls<String>(maxStates)
+    private val stateValues = arrayOfNulls<String>(maxStates)
+    private val stateNames = AtomicReferenceArray<String>(maxStates + 1)
+    @Volatile
+    private var stateCount = 0
+
+    // indexed by state, the last index counts the states over the capacity
+    private val framesCounts = AtomicLongArray(maxStates + 1)
+    private val slowFramesCounts = AtomicLongArray(maxStates + 1)
+    private val framesDurationsNs = AtomicLongArray(maxStates + 1)
+    private val delayDurationsNs = AtomicLongArray(maxStates + 1)
+
+    // odd while the writer is updating the statistics
+    @Volatile
+    private var version = 0L
+
+    init {
+        stateNames.set(maxStates, OTHER_STATES)
+    }
+
+    // Called from the background thread
+    override fun onFrame(volatileFrameData: FrameData) {
+        val frameDurationNs = volatileFrameData.frameDurationUiNanos
+        val expectedDurationNs = volatileFrameData.getExpectedDurationNs(refreshRateTracker)
+        val states = volatileFrameData.states
+        if (states.isEmpty()) {
+            onFrame(frameDurationNs, expectedDurationNs)
+            return
+        }
+        version++
+        for (i in states.indices) {
+            record(getStateIndex(states[i]), frameDurationNs, expectedDurationNs)
+        }
+        version++
+    }
+
+    // Called from the frame source thread
+    override fun onFrameSample(frameSample: FrameSample) {
+        onFrame(frameSample.uiDurationNanos, frameSample.frameBudgetNanos)
+    }
+
+    private fun onFrame(frameDurationNs: Long, expectedDurationNs: Long) {
+        val states = uiStates?.currentStates ?: return
+        if (states.isEmpty()) {
+            return
+        }
+        version++
+        for (i in states.indices) {
+            record(getStateIndex(states[i]), frameDurationNs, expectedDurationNs)
+        }
+        version++
+    }
+
+    private fun record(index: Int, frameDurationNs: Long, expectedDurationNs: Long) {
+        framesCounts.lazySet(index, framesCounts.get(index) + 1)
+        framesDurationsNs.lazySet(index, framesDurationsNs.get(index) + frameDurationNs)
+        if (frameDurationNs >= expectedDurationNs) {
+            slowFramesCounts.lazySet(index, slowFramesCounts.get(index) + 1)
+            delayDurationsNs.lazySet(
+                index,
+                delayDurationsNs.get(index) + frameDurationNs - expectedDurationNs
+            )
+        }
+    }
+
+    private fun getStateIndex(state: StateInfo): Int {
+        val key = state.key
+        val value = state.value
+        // the hash codes of strings are cached, so probing a known state doesn't allocate
+        val mask = stateTable.size - 1
+        var slot = (31 * key.hashCode() + value.hashCode()) and mask
+        while (true) {
+            val entry = stateTable[slot]
+            if (entry == 0) {
+                break
+            }
+            val index = entry - 1
+            if (stateKeys[index] == key && stateValues[index] == value) {
+                return index
+            }
+            slot = (slot + 1) and mask
+        }
+        val index = stateCount
+        if (index == maxStates) {
+            return maxStates
+        }
+        stateKeys[index] = key
+        stateValues[index] = value
+        stateTable[slot] = index + 1
+        stateNames.set(index, "$key=$value")
+        stateCount = index + 1
+        return index
+    }
+
+    /**
+     * Returns a consistent copy of the statistics of every state seen so far, which can be read
+     * on any thread.
+     */
+    fun getStateStats(): List<StateStats> {
+        while (true) {
+            val versionBefore = version
+            if (versionBefore % 2L != 0L) {
+                Thread.yield()
+                continue
+            }
+            val count = stateCount
+            val stats = ArrayList<StateStats>(count + 1)
+            for (index in 0 until count) {
+                stats.add(getStateStats(index))
+            }
+            if (framesCounts.get(maxStates) > 0) {
+                stats.add(getStateStats(maxStates))
+            }
+            if (version == versionBefore) {
+                return stats
+            }
+        }
+    }
+
+    private fun getStateStats(index: Int) = StateStats(
+        stateNames.get(index),
+        framesCounts.get(index),
+        slowFramesCounts.get(index),
+        framesDurationsNs.get(index),
+        delayDurationsNs.get(index),
+    )
+
+    companion object {
+        const val OTHER_STATES = "other"
+        private const val DEFAULT_MAX_STATES = 64
+
+        // the smallest power of two at least twice the number of states
+        private fun tableSizeFor(maxStates: Int): Int =
+            Integer.highestOneBit(maxOf(1, maxStates) * 2 - 1) shl 1
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.frames_demo.datadog.frame_calculation
+
+import android.view.View
+import androidx.annotation.MainThread
+import androidx.metrics.performance.PerformanceMetricsState
+import androidx.metrics.performance.StateInfo
+
+/**
+ * Sets the UI states the frames of a window are attributed to, e.g. the current screen or whether a
+ * list is scrolling, from navigation and scroll listeners.
+ *
+ * The states are put in the [PerformanceMetricsState] of the view hierarchy, so JankStats reports
+ * them in [androidx.metrics.performance.FrameData.states], and are also kept in [currentStates]
+ * for the frames which don't carry their states, i.e. the frames of the FrameSource.
+ */
+internal class UiStates(private val view: View) {
+
+    // copied on write, so the frame thread can iterate without locking or allocating
+    @Volatile
+    var currentStates: Array<StateInfo> = emptyArray()
+        private set
+
+    @MainThread
+    fun putState(key: String, value: String) {
+        val states = currentStates
+        val index = states.indexOfFirst { it.key == key }
+        if (index >= 0 && states[index].value == value) {
+            return
+        }
+        val state = StateInfo(key, value)
+        currentStates = if (index >= 0) {
+            states.copyOf().also { it[index] = state }
+        } else {
+            states + state
+        }
+        PerformanceMetricsState.getHolderForHierarchy(view).state?.putState(key, value)
+    }
+
+    @MainThread
+    fun removeState(key: String) {
+        val states = currentStates
+        if (states.none { it.key == key }) {
+            return
+        }
+        currentStates = states.filter { it.key != key }.toTypedArray()
+        PerformanceMetricsState.getHolderForHierarchy(view).state?.removeState(key)
+    }
+
+    @MainThread
+    fun onScreenChanged(screenName: String) {
+        putState(SCREEN_STATE, screenName)
+    }
+
+    @MainThread
+    fun onScrollStateChanged(isScrolling: Boolean) {
+        if (isScrolling) {
+            putState(SCROLLING_STATE, true.toString())
+        } else {
+            removeState(SCROLLING_STATE)
+        }
+    }
+
+    companion object {
+        const val SCREEN_STATE = "screen"
+        const val SCROLLING_STATE = "scrolling"
+    }
+}
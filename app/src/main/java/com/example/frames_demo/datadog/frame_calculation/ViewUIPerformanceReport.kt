@@ -1,32 +1,122 @@
 package com.example.frames_demo.datadog.frame_calculation
 
-import com.example.frames_demo.datadog.utils.EvictingQueue
-import java.util.Queue
-
+/**
+ * Frame statistics of a view.
+ *
+ * The report is updated by a single writer, the frame thread, without locking: each update is
+ * wrapped in [beginUpdate] and [endUpdate], which make the [version] odd while the fields are being
+ * written. Readers on other threads take a consistent copy with [snapshot] instead of reading the
+ * fields directly.
+ */
 internal data class ViewUIPerformanceReport(
-    var slowFramesRecords: Queue<SlowFrameRecord> = EvictingQueue(),
-    var slowFramesCount: Long = 0L,
-    var slowFramesDurationNs: Float = 0.0f,
-    var ignoredFramesCount: Long = 0L,
-    var totalFramesDurationNs: Float = 0.0f,
-    var startTimeMs: Long = 0L,
-    var endTimeMs: Long = 0L,
-    var totalDelayDuration: Float = 0.0f,
+    @Volatile var slowFramesRecords: SlowFramesRing =
+        SlowFramesRing(SlowFramesConfiguration.DEFAULT_SLOW_FRAME_RECORDS_MAX_AMOUNT),
+    @Volatile var slowFramesCount: Long = 0L,
+    @Volatile var slowFramesDurationNs: Long = 0L,
+    @Volatile var ignoredFramesCount: Long = 0L,
+    @Volatile var totalFramesDurationNs: Long = 0L,
+    @Volatile var startTimeMs: Long = 0L,
+    @Volatile var endTimeMs: Long = 0L,
+    @Volatile var totalDelayDuration: Long = 0L,
+    @Volatile var renderJankFramesCount: Long = 0L,
+    @Volatile var renderJankDelayDurationNs: Long = 0L,
+    @Volatile var freezeFramesCount: Long = 0L,
+    @Volatile var freezeDurationNs: Long = 0L,
 ) {
     constructor(
         maxSize: Int,
     ) : this(
-        slowFramesRecords = EvictingQueue(maxSize),
+        slowFramesRecords = SlowFramesRing(maxSize),
     )
 
+    // odd while the writer is updating the report
+    @Volatile
+    private var version = 0L
+
+    // the view the report was last reset for
+    @Volatile
+    var viewId: Long = 0L
+        private set
+
     val reportDuration: Long
         get() = endTimeMs - startTimeMs
 
-    val lastSlowFrameRecord: SlowFrameRecord?
-        get() = slowFramesRecords.lastOrNull()
-
     val size: Int
         get() = slowFramesRecords.size
 
+    /**
+     * Milliseconds spent in slow frames per second of rendered frames.
+     */
+    val slowFramesRate: Double
+        get() = if (totalFramesDurationNs > 0) {
+            slowFramesDurationNs * MS_PER_SECOND / totalFramesDurationNs
+        } else {
+            0.0
+        }
+
+    /**
+     * Seconds spent in freezes per hour of the view, only known once the view ended.
+     */
+    val freezeRate: Double
+        get() = if (reportDuration > 0) {
+            freezeDurationNs / NS_PER_SECOND / (reportDuration / MS_PER_HOUR)
+        } else {
+            0.0
+        }
+
     fun isEmpty() = slowFramesRecords.isEmpty()
-}
\ No newline at end of file
+
+    // Only called by the single writer
+    fun beginUpdate() {
+        version++
+    }
+
+    // Only called by the single writer
+    fun endUpdate() {
+        version++
+    }
+
+    /**
+     * Clears the frame statistics in place for a new view, so views reuse the same report and slow
+     * frame records. Only called by the single writer, between [beginUpdate] and [endUpdate].
+     */
+    fun reset(viewId: Long) {
+        slowFramesRecords.clear()
+        slowFramesCount = 0L
+        slowFramesDurationNs = 0L
+        ignoredFramesCount = 0L
+        totalFramesDurationNs = 0L
+        totalDelayDuration = 0L
+        renderJankFramesCount = 0L
+        renderJankDelayDurationNs = 0L
+        freezeFramesCount = 0L
+        freezeDurationNs = 0L
+        this.viewId = viewId
+    }
+
+    /**
+     * Returns a copy of the report, slow frame records included, that is consistent with a single
+     * point between two updates. It never blocks the writer: the copy is retried if an update was
+     * in progress or happened while copying.
+     */
+    fun snapshot(): ViewUIPerformanceReport {
+        while (true) {
+            val versionBefore = version
+            if (versionBefore % 2L != 0L) {
+                Thread.yield()
+                continue
+            }
+            val snapshot = copy(slowFramesRecords = slowFramesRecords.copy())
+            snapshot.viewId = viewId
+            if (version == versionBefore) {
+                return snapshot
+            }
+        }
+    }
+
+    companion object {
+        private const val MS_PER_SECOND = 1_000.0
+        private const val NS_PER_SECOND = 1_000_000_000.0
+        private const val MS_PER_HOUR = 3_600_000.0
+    }
+}
@@ -7,43 +7,66 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.FrameMetricsAggregator;
 
+import com.example.frames_demo.common.frame_calculations.FrameSample;
+import com.example.frames_demo.common.frame_calculations.RefreshRateTracker;
 import com.example.frames_demo.firebase.utils.Constants;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class AppFrameMetricsCalculator {
 
-    private final int normalFrameDuration;
+    private final RefreshRateTracker refreshRateTracker;
 
-    public AppFrameMetricsCalculator(float refreshRate) {
-        this.normalFrameDuration = Math.round(1 / refreshRate * 1000f);
+    public AppFrameMetricsCalculator(@NonNull RefreshRateTracker refreshRateTracker) {
+        this.refreshRateTracker = refreshRateTracker;
     }
 
     public static class PerfFrameMetrics {
         int totalFrames;
         int slowFrames;
         int frozenFrames;
-        Map<Integer, Integer> slowFramesMap;
-        Map<Integer, Integer> frozenFramesMap;
+        FrameDurationHistogram frameDurationHistogram;
+        float slowFrameThresholdMs;
         int totalDelayDuration;
+        @Nullable FrameDurationHistogram[] stageHistograms;
+
+        public PerfFrameMetrics(int totalFrames, int slowFrames, int frozenFrames, FrameDurationHistogram frameDurationHistogram, float slowFrameThresholdMs, int totalDelayDuration) {
+            this(totalFrames, slowFrames, frozenFrames, frameDurationHistogram, slowFrameThresholdMs, totalDelayDuration, null);
+        }
 
-        public PerfFrameMetrics(int totalFrames, int slowFrames, int frozenFrames, Map<Integer, Integer> slowFramesMap, Map<Integer, Integer> frozenFramesMap,int totalDelayDuration) {
+        public PerfFrameMetrics(int totalFrames, int slowFrames, int frozenFrames, FrameDurationHistogram frameDurationHistogram, float slowFrameThresholdMs, int totalDelayDuration, @Nullable FrameDurationHistogram[] stageHistograms) {
+            this.stageHistograms = stageHistograms;
             this.totalFrames = totalFrames;
             this.slowFrames = slowFrames;
             this.frozenFrames = frozenFrames;
-            this.slowFramesMap = slowFramesMap;
-            this.frozenFramesMap = frozenFramesMap;
+            this.frameDurationHistogram = frameDurationHistogram;
+            this.slowFrameThresholdMs = slowFrameThresholdMs;
             this.totalDelayDuration = totalDelayDuration;
 
         }
 
-        public Map<Integer, Integer> getSlowFramesMap() {
-            return slowFramesMap;
+        /**
+         * Returns the durations of all frames in milliseconds.
+         */
+        public FrameDurationHistogram getFrameDurationHistogram() {
+            return frameDurationHistogram;
         }
 
-        public Map<Integer, Integer> getFrozenFramesMap() {
-            return frozenFramesMap;
+        /**
+         * Returns the frame budget in milliseconds the frames were classified with, frames taking
+         * longer are slow.
+         */
+        public float getSlowFrameThresholdMs() {
+            return slowFrameThresholdMs;
+        }
+
+        /**
+         * Returns the durations of the given stage in microseconds, or null if the stages were not
+         * recorded, see {@link FrameStageAggregator}, or not copied for the trace.
+         *
+         * @param stage one of the {@link FrameSample} {@code STAGE_*} constants or {@link
+         *              FrameStageAggregator#TOTAL_STAGE}
+         */
+        public @Nullable FrameDurationHistogram getStageHistogram(int stage) {
+            return stageHistograms != null ? stageHistograms[stage] : null;
         }
 
         public int getFrozenFrames() {
@@ -71,31 +94,107 @@ public class AppFrameMetricsCalculator {
      * @return the frame metrics
      */
     public @NonNull PerfFrameMetrics calculateFrameMetrics(@Nullable SparseIntArray[] arr) {
+        return calculateFrameMetrics(arr, null);
+    }
+
+    /**
+     * Calculate total frames, slow frames, and frozen frames recorded by a {@link
+     * FrameStageAggregator} between two snapshots. The frames were already classified against
+     * their own budget in nanoseconds, the frame budget is only reported for display.
+     *
+     * @param end   the values at the end of the recording, whose histograms become the ones of
+     *              the frame metrics
+     * @param start the values at the start of the recording, or null to use all frames
+     * @return the frame metrics
+     */
+    @NonNull PerfFrameMetrics calculateFrameMetrics(
+            @NonNull FrameStageAggregator.Snapshot end,
+            @Nullable FrameStageAggregator.Snapshot start) {
+        // the end snapshot is a copy taken for this calculation only
+        final FrameDurationHistogram[] stageHistograms = end.histograms;
+        for (int i = 0; i < stageHistograms.length; i++) {
+            if (start == null || stageHistograms[i] == null) {
+                continue;
+            }
+            if (start.histograms[i] != null) {
+                stageHistograms[i].subtract(start.histograms[i]);
+            } else {
+                // the stages were not copied at the start
+                stageHistograms[i] = null;
+            }
+        }
+        // the total durations in milliseconds, as recorded by the default aggregator
+        final FrameDurationHistogram totalHistogramMicros =
+                stageHistograms[FrameStageAggregator.TOTAL_STAGE];
+        FrameDurationHistogram frameDurationHistogram = FrameDurationHistogram.ofMillis();
+        for (int i = 0; i < totalHistogramMicros.getBucketCount(); i++) {
+            final long count = totalHistogramMicros.getCountAtBucket(i);
+            if (count > 0) {
+                frameDurationHistogram.record(
+                        Math.round(totalHistogramMicros.getBucketLowerBound(i) / 1e3), count);
+            }
+        }
+        return new PerfFrameMetrics(
+                (int) (end.frameCount - (start != null ? start.frameCount : 0)),
+                (int) (end.slowFrameCount - (start != null ? start.slowFrameCount : 0)),
+                (int) (end.frozenFrameCount - (start != null ? start.frozenFrameCount : 0)),
+                frameDurationHistogram,
+                refreshRateTracker.getFrameBudgetNanos() / 1e6f,
+                (int) Math.round((end.delayNanos - (start != null ? start.delayNanos : 0)) / 1e6),
+                stageHistograms);
+    }
+
+    /**
+     * Calculate total frames, slow frames, and frozen frames recorded by {@link
+     * FrameMetricsAggregator} since the given snapshot was taken.
+     *
+     * @param arr      the metrics data collected by {@link FrameMetricsAggregator#getMetrics()}
+     * @param baseline the frame times at the start of the trace, or null to use all frames
+     * @return the frame metrics
+     */
+    @NonNull PerfFrameMetrics calculateFrameMetrics(
+            @Nullable SparseIntArray[] arr, @Nullable FrameTimesSnapshot baseline) {
         int totalFrames = 0;
         int slowFrames = 0;
         int frozenFrames = 0;
-        int totalDelayDuration = 0;
-        Map<Integer, Integer> slowFramesMap = new HashMap<>();
-        Map<Integer, Integer> frozenFramesMap = new HashMap<>();
+        float totalDelayDuration = 0;
+        // the budget of the current refresh rate, kept in fractions of a millisecond as rounding
+        // it would misclassify frames at 90/120Hz
+        final float normalFrameDuration = refreshRateTracker.getFrameBudgetNanos() / 1e6f;
+        FrameDurationHistogram frameDurationHistogram = FrameDurationHistogram.ofMillis();
 
         if (arr != null) {
             SparseIntArray frameTimes = arr[FrameMetricsAggregator.TOTAL_INDEX];
             if (frameTimes != null) {
+                // both are ordered by duration, so the baseline is walked along
+                int baselineIndex = 0;
                 for (int i = 0; i < frameTimes.size(); i++) {
                     int frameTime = frameTimes.keyAt(i); // duration
-                    totalDelayDuration += ((frameTime - normalFrameDuration)*frameTimes.valueAt(i));
                     int numFrames = frameTimes.valueAt(i); // num of frames with the same duration
+                    if (baseline != null) {
+                        while (baselineIndex < baseline.size()
+                                && baseline.durationMsAt(baselineIndex) < frameTime) {
+                            baselineIndex++;
+                        }
+                        if (baselineIndex < baseline.size()
+                                && baseline.durationMsAt(baselineIndex) == frameTime) {
+                            numFrames -= baseline.countAt(baselineIndex);
+                        }
+                        if (numFrames <= 0) {
+                            continue;
+                        }
+                    }
+                    totalDelayDuration += ((frameTime - normalFrameDuration)*numFrames);
                     totalFrames += numFrames;
+                    frameDurationHistogram.record(frameTime, numFrames);
                     if (frameTime > Constants.FROZEN_FRAME_TIME) {
                         frozenFrames += numFrames;
-                        frozenFramesMap.put(frameTime, numFrames);
                     } else if (frameTime > normalFrameDuration) {
                         slowFrames += numFrames;
-                        slowFramesMap.put(frameTime, numFrames);
                     }
                 }
             }
         }
-        return new PerfFrameMetrics(totalFrames, slowFrames, frozenFrames, slowFramesMap, frozenFramesMap,totalDelayDuration);
+        return new PerfFrameMetrics(totalFrames, slowFrames, frozenFrames, frameDurationHistogram, normalFrameDuration, Math.round(totalDelayDuration));
     }
 }
\ No newline at end of file
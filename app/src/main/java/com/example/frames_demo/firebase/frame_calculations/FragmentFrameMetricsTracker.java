@@ -0,0 +1,54 @@
+package com.example.frames_demo.firebase.frame_calculations;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentManager;
+
+import com.example.frames_demo.firebase.utils.Optional;
+
+/**
+ * Traces the frames of every fragment of an activity while it is resumed.
+ *
+ * <p>Each fragment trace is a sub trace of the {@link FrameMetricsRecorder} of the activity, i.e.
+ * the delta of the cumulative frame times of the activity window, so there is still one frame
+ * listener per window no matter how many fragments are traced. The results are aggregated per
+ * screen, named after the fragment class, in a {@link ScreenFrameMetricsStore}.
+ */
+public class FragmentFrameMetricsTracker extends FragmentManager.FragmentLifecycleCallbacks {
+
+    private final FrameMetricsRecorder frameMetricsRecorder;
+    private final ScreenFrameMetricsStore screenFrameMetricsStore;
+
+    public FragmentFrameMetricsTracker(
+            @NonNull FrameMetricsRecorder frameMetricsRecorder,
+            @NonNull ScreenFrameMetricsStore screenFrameMetricsStore) {
+        this.frameMetricsRecorder = frameMetricsRecorder;
+        this.screenFrameMetricsStore = screenFrameMetricsStore;
+    }
+
+    @Override
+    public void onFragmentResumed(@NonNull FragmentManager fm, @NonNull Fragment f) {
+        frameMetricsRecorder.startSubTrace(f);
+    }
+
+    @Override
+    public void onFragmentPaused(@NonNull FragmentManager fm, @NonNull Fragment f) {
+        Optional<AppFrameMetricsCalculator.PerfFrameMetrics> data =
+                frameMetricsRecorder.stopSubTrace(f);
+        if (!data.isAvailable()) {
+            Log.v("FragmentFrameMetricsTracker", "No frame metrics for " + getScreenName(f));
+            return;
+        }
+        screenFrameMetricsStore.add(getScreenName(f), data.get());
+    }
+
+    public @NonNull ScreenFrameMetricsStore getScreenFrameMetricsStore() {
+        return screenFrameMetricsStore;
+    }
+
+    private static @NonNull String getScreenName(@NonNull Fragment f) {
+        return f.getClass().getSimpleName();
+    }
+}
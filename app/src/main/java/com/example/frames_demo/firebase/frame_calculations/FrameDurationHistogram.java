@@ -0,0 +1,260 @@
+package com.example.frames_demo.firebase.frame_calculations;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of frame durations with a fixed number of log-linear buckets.
+ *
+ * <p>Values below {@link #SUB_BUCKET_COUNT} each have their own bucket. Above that every power of
+ * two is split into {@link #SUB_BUCKET_COUNT} / 2 buckets of equal width, so values are kept with
+ * a relative precision of about 3%. The unit of the values is up to the caller, with milliseconds
+ * all frame durations below 64ms are exact.
+ *
+ * <p>The number of buckets follows the largest value of the histogram, see {@link #ofMillis()} and
+ * {@link #ofMicros()}, so that histograms of short frame durations stay small.
+ *
+ * <p>Recording is O(1) and never allocates, and histograms of the same layout can be merged by
+ * adding their buckets. Copies only hold the range of buckets with values. The histogram is not
+ * thread safe.
+ */
+public final class FrameDurationHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    /**
+     * The largest value of millisecond histograms, about a second: frames longer than the frozen
+     * frame threshold only need to be counted, not told apart.
+     */
+    public static final long MAX_MILLIS = (1L << 10) - 1;
+    /**
+     * The largest value of microsecond histograms, about a second.
+     */
+    public static final long MAX_MICROS = (1L << 20) - 1;
+
+    // larger values are recorded in the last bucket
+    private final long maxValue;
+    private final int bucketCount;
+    // the buckets from offset to offset + counts.length - 1, the others are empty
+    private long[] counts;
+    private int offset;
+    private long totalCount;
+
+    /**
+     * @param maxValue the largest value told apart from the others, larger values are recorded
+     *                 as this one
+     */
+    public FrameDurationHistogram(final long maxValue) {
+        this.maxValue = Math.max(0, maxValue);
+        this.bucketCount = bucketIndexOf(this.maxValue, this.maxValue) + 1;
+        this.counts = new long[bucketCount];
+    }
+
+    private FrameDurationHistogram(
+            final long maxValue, final @NonNull long[] counts, final int offset) {
+        this.maxValue = maxValue;
+        this.bucketCount = bucketIndexOf(maxValue, maxValue) + 1;
+        this.counts = counts;
+        this.offset = offset;
+    }
+
+    /**
+     * Returns a histogram of frame durations in milliseconds, about 1.5KB.
+     */
+    public static @NonNull FrameDurationHistogram ofMillis() {
+        return new FrameDurationHistogram(MAX_MILLIS);
+    }
+
+    /**
+     * Returns a histogram of frame durations in microseconds, about 4KB.
+     */
+    public static @NonNull FrameDurationHistogram ofMicros() {
+        return new FrameDurationHistogram(MAX_MICROS);
+    }
+
+    /**
+     * Records a single value, negative values are recorded as 0.
+     */
+    public void record(final long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records a value the given number of times, negative values are recorded as 0. Only
+     * allocates if the histogram is a compact {@link #copy()} and the value is outside of its
+     * range.
+     */
+    public void record(final long value, final long count) {
+        final int index = bucketIndexOf(value, maxValue);
+        ensureRange(index, index);
+        counts[index - offset] += count;
+        totalCount += count;
+    }
+
+    /**
+     * Adds all values recorded by the other histogram to this one.
+     */
+    public void merge(@NonNull FrameDurationHistogram other) {
+        checkSameRange(other);
+        add(other, 1);
+    }
+
+    /**
+     * Removes the values recorded by the other histogram, which has to be an earlier copy of this
+     * one, leaving the values recorded since the copy was taken.
+     */
+    public void subtract(@NonNull FrameDurationHistogram other) {
+        checkSameRange(other);
+        add(other, -1);
+    }
+
+    /**
+     * Returns a compact copy, which only holds the buckets from the lowest to the highest one with
+     * values, so copying the durations of frames which are close to each other is cheap.
+     */
+    public @NonNull FrameDurationHistogram copy() {
+        int first = 0;
+        while (first < counts.length && counts[first] == 0) {
+            first++;
+        }
+        int last = counts.length - 1;
+        while (last >= first && counts[last] == 0) {
+            last--;
+        }
+        final FrameDurationHistogram copy = new FrameDurationHistogram(
+                maxValue, Arrays.copyOfRange(counts, first, last + 1), offset + first);
+        copy.totalCount = totalCount;
+        return copy;
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the recorded values are, at the
+     * precision of the buckets, or 0 if the histogram is empty.
+     *
+     * @param percentile a percentage between 0 and 100
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        final double clamped = Math.min(Math.max(percentile, 0), 100);
+        final long rank = Math.max(1, (long) Math.ceil(clamped / 100 * totalCount));
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if (count >= rank) {
+                return getBucketLowerBound(offset + i);
+            }
+        }
+        return getBucketLowerBound(bucketCount - 1);
+    }
+
+    /**
+     * Returns the number of recorded values greater than the given threshold. The bucket holding
+     * the threshold itself is not counted, so above the exact range the result can miss values
+     * less than a bucket width above the threshold.
+     */
+    public long getCountAbove(final long threshold) {
+        if (threshold < 0) {
+            return totalCount;
+        }
+        long count = 0;
+        final int first = Math.max(0, bucketIndexOf(threshold, maxValue) + 1 - offset);
+        for (int i = first; i < counts.length; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of buckets, to iterate over the recorded values along with
+     * {@link #getBucketLowerBound(int)} and {@link #getCountAtBucket(int)}.
+     */
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * Returns the largest value told apart from the others.
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    public long getCountAtBucket(final int index) {
+        final int i = index - offset;
+        return i >= 0 && i < counts.length ? counts[i] : 0;
+    }
+
+    /**
+     * Returns the lowest value recorded in the given bucket.
+     */
+    public long getBucketLowerBound(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        final long subBucket =
+                (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return subBucket << shift;
+    }
+
+    private void add(@NonNull FrameDurationHistogram other, final int sign) {
+        if (other.counts.length > 0) {
+            ensureRange(other.offset, other.offset + other.counts.length - 1);
+        }
+        final int shift = other.offset - offset;
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[shift + i] += sign * other.counts[i];
+        }
+        totalCount += sign * other.totalCount;
+    }
+
+    /**
+     * Grows the stored buckets of a compact copy to hold the given buckets.
+     */
+    private void ensureRange(final int firstIndex, final int lastIndex) {
+        if (firstIndex >= offset && lastIndex < offset + counts.length) {
+            return;
+        }
+        final int first = counts.length > 0 ? Math.min(firstIndex, offset) : firstIndex;
+        final int last = counts.length > 0
+                ? Math.max(lastIndex, offset + counts.length - 1)
+                : lastIndex;
+        final long[] grown = new long[last - first + 1];
+        System.arraycopy(counts, 0, grown, offset - first, counts.length);
+        counts = grown;
+        offset = first;
+    }
+
+    private void checkSameRange(@NonNull FrameDurationHistogram other) {
+        if (other.maxValue != maxValue) {
+            throw new IllegalArgumentException("Histograms of different ranges: "
+                    + maxValue + " and " + other.maxValue);
+        }
+    }
+
+    private static int bucketIndexOf(final long value, final long maxValue) {
+        final long clamped = Math.min(value, maxValue);
+        if (clamped < SUB_BUCKET_COUNT) {
+            return (int) Math.max(0, clamped);
+        }
+        final int highestBit = 63 - Long.numberOfLeadingZeros(clamped);
+        // keep the SUB_BUCKET_BITS highest bits of the value
+        final int shift = highestBit - (SUB_BUCKET_BITS - 1);
+        final int subBucket = (int) (clamped >>> shift);
+        return SUB_BUCKET_COUNT
+                + (shift - 1) * SUB_BUCKET_HALF_COUNT
+                + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+}
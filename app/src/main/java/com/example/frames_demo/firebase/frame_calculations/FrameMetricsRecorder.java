@@ -2,18 +2,30 @@ package com.example.frames_demo.firebase.frame_calculations;
 
 
 import android.app.Activity;
-import android.content.Context;
 import android.os.Build;
 import android.util.Log;
 import android.util.SparseIntArray;
-import android.view.WindowManager;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.core.app.FrameMetricsAggregator;
 
+import com.example.frames_demo.common.frame_calculations.RefreshRateTracker;
+import com.example.frames_demo.common.frame_calculations.RollingFrameStats;
 import com.example.frames_demo.firebase.utils.Optional;
 
-
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the frames of an activity window for a main trace and any number of overlapping sub
+ * traces, e.g. screen and feature traces, with a single {@link FrameMetricsAggregator}.
+ *
+ * <p>The aggregator is never reset: each trace keeps a snapshot of the cumulative frame times at
+ * its start, and its frames are the difference at its end. The aggregator is attached to the window
+ * while at least one trace is running.
+ */
 public class FrameMetricsRecorder {
 
     private final Activity activity;
@@ -22,6 +34,9 @@ public class FrameMetricsRecorder {
     private final AppFrameMetricsCalculator calculator;
 
     private boolean isRecording = false;
+    private @Nullable FrameTimesSnapshot recordingSnapshot;
+    private final Map<Object, FrameTimesSnapshot> subTraceSnapshots = new HashMap<>();
+    private boolean isAttached = false;
 
 
     /**
@@ -30,7 +45,20 @@ public class FrameMetricsRecorder {
      * @param activity the activity that the recorder is collecting data from.
      */
     public FrameMetricsRecorder(Activity activity) {
-        this(activity, new FrameMetricsAggregator());
+        this(activity, false);
+    }
+
+    /**
+     * Creates a recorder for a specific activity.
+     *
+     * @param activity the activity that the recorder is collecting data from.
+     * @param useFrameSource true to read the frames of the shared FrameSource of the activity
+     *                       window with a {@link FrameStageAggregator}, instead of registering
+     *                       another frame metrics listener.
+     */
+    public FrameMetricsRecorder(Activity activity, boolean useFrameSource) {
+        this(activity,
+                useFrameSource ? new FrameStageAggregator() : new FrameMetricsAggregator());
     }
 
     @VisibleForTesting
@@ -39,8 +67,7 @@ public class FrameMetricsRecorder {
             FrameMetricsAggregator frameMetricsAggregator) {
         this.activity = activity;
         this.frameMetricsAggregator = frameMetricsAggregator;
-        var display = ((WindowManager) activity.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
-        this.calculator = new AppFrameMetricsCalculator(display.getRefreshRate());
+        this.calculator = new AppFrameMetricsCalculator(RefreshRateTracker.getInstance(activity));
     }
 
     /**
@@ -52,7 +79,8 @@ public class FrameMetricsRecorder {
                     "FrameMetricsAggregator is already recording");
             return;
         }
-        frameMetricsAggregator.add(activity);
+        attach();
+        recordingSnapshot = takeSnapshot(true);
         isRecording = true;
     }
 
@@ -66,7 +94,79 @@ public class FrameMetricsRecorder {
             Log.v("AppFrameMetricsRecorder", "Cannot stop because no recording was started");
             return Optional.absent();
         }
-        Optional<AppFrameMetricsCalculator.PerfFrameMetrics> data = this.snapshot();
+        Optional<AppFrameMetricsCalculator.PerfFrameMetrics> data =
+                snapshot(recordingSnapshot, true);
+        isRecording = false;
+        recordingSnapshot = null;
+        if (!detachIfIdle()) {
+            data = Optional.absent();
+        }
+        return data;
+    }
+
+    /**
+     * Starts a trace which can overlap with the main recording and the other sub traces.
+     *
+     * @param key identifies the trace, e.g. a fragment or a feature name
+     */
+    public void startSubTrace(@NonNull Object key) {
+        if (subTraceSnapshots.containsKey(key)) {
+            Log.v("AppFrameMetricsRecorder", "Sub trace " + key + " is already recording");
+            return;
+        }
+        attach();
+        // sub traces only report the total durations, e.g. per screen, so the stages are not
+        // copied for every fragment
+        subTraceSnapshots.put(key, takeSnapshot(false));
+    }
+
+    /**
+     * Stops a trace started with {@link #startSubTrace(Object)}.
+     *
+     * @return FrameMetrics accumulated since the trace was started.
+     */
+    public Optional<AppFrameMetricsCalculator.PerfFrameMetrics> stopSubTrace(@NonNull Object key) {
+        if (!subTraceSnapshots.containsKey(key)) {
+            Log.v("AppFrameMetricsRecorder", "Cannot stop because sub trace " + key + " was not started");
+            return Optional.absent();
+        }
+        Optional<AppFrameMetricsCalculator.PerfFrameMetrics> data =
+                snapshot(subTraceSnapshots.remove(key), false);
+        if (!detachIfIdle()) {
+            data = Optional.absent();
+        }
+        return data;
+    }
+
+    /**
+     * Returns the frames of the last seconds, which can be read while recording, or null if the
+     * recorder doesn't use the frame source.
+     */
+    public @Nullable RollingFrameStats getRollingFrameStats() {
+        if (frameMetricsAggregator instanceof FrameStageAggregator) {
+            return ((FrameStageAggregator) frameMetricsAggregator).getRollingFrameStats();
+        }
+        return null;
+    }
+
+    private void attach() {
+        if (!isAttached) {
+            frameMetricsAggregator.add(activity);
+            isAttached = true;
+        }
+    }
+
+    /**
+     * Detaches the aggregator from the window once no trace is running anymore.
+     *
+     * @return false if the frames could not be collected, as the window is not hardware
+     * accelerated.
+     */
+    private boolean detachIfIdle() {
+        if (!isAttached || isRecording || !subTraceSnapshots.isEmpty()) {
+            return true;
+        }
+        isAttached = false;
         try {
             // No reliable way to check for hardware-acceleration, so we must catch retroactively (#2736).
             frameMetricsAggregator.remove(activity);
@@ -83,24 +183,43 @@ public class FrameMetricsRecorder {
             }
             Log.v("AppFrameMetricsRecorder",
                     "View not hardware accelerated. Unable to collect FrameMetrics");
-            data = Optional.absent();
+            return false;
         }
-        frameMetricsAggregator.reset();
-        isRecording = false;
-        return data;
+        return true;
     }
 
+    /**
+     * Copies the cumulative frame times recorded so far, or returns an empty snapshot if nothing
+     * was recorded yet.
+     *
+     * @param withStages false to only copy the total durations of the stage aggregator
+     */
+    private @NonNull FrameTimesSnapshot takeSnapshot(boolean withStages) {
+        // the stage aggregator copies its values under its own lock, as frames are recorded on
+        // another thread
+        if (frameMetricsAggregator instanceof FrameStageAggregator) {
+            return FrameTimesSnapshot.of(
+                    ((FrameStageAggregator) frameMetricsAggregator).takeSnapshot(withStages));
+        }
+        SparseIntArray[] arr = frameMetricsAggregator.getMetrics();
+        if (arr == null || arr[FrameMetricsAggregator.TOTAL_INDEX] == null) {
+            return FrameTimesSnapshot.empty();
+        }
+        return FrameTimesSnapshot.of(arr[FrameMetricsAggregator.TOTAL_INDEX]);
+    }
 
     /**
      * Snapshots total frames, slow frames, and frozen frames from SparseIntArray[] recorded by {@link
-     * FrameMetricsAggregator}.
+     * FrameMetricsAggregator}, since the given snapshot was taken.
      *
      * @return {@link AppFrameMetricsCalculator.PerfFrameMetrics} at the time of snapshot.
      */
-    private Optional<AppFrameMetricsCalculator.PerfFrameMetrics> snapshot() {
-        if (!isRecording) {
-            Log.v("AppFrameMetricsRecorder", "No recording has been started.");
-            return Optional.absent();
+    private Optional<AppFrameMetricsCalculator.PerfFrameMetrics> snapshot(
+            @Nullable FrameTimesSnapshot baseline, boolean withStages) {
+        if (frameMetricsAggregator instanceof FrameStageAggregator) {
+            return Optional.of(calculator.calculateFrameMetrics(
+                    ((FrameStageAggregator) frameMetricsAggregator).takeSnapshot(withStages),
+                    baseline != null ? baseline.getStageSnapshot() : null));
         }
         SparseIntArray[] arr = this.frameMetricsAggregator.getMetrics();
         if (arr == null) {
@@ -112,7 +231,6 @@ public class FrameMetricsRecorder {
             Log.v("AppFrameMetricsRecorder", "FrameMetricsAggregator.mMetrics[TOTAL_INDEX] is uninitialized.");
             return Optional.absent();
         }
-        return Optional.of(calculator.calculateFrameMetrics(arr));
+        return Optional.of(calculator.calculateFrameMetrics(arr, baseline));
     }
 }
-
@@ -0,0 +1,196 @@
+package com.example.frames_demo.firebase.frame_calculations;
+
+import android.app.Activity;
+import android.util.SparseIntArray;
+import android.view.Window;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.FrameMetricsAggregator;
+
+import com.example.frames_demo.common.frame_calculations.FrameSample;
+import com.example.frames_demo.common.frame_calculations.FrameSource;
+import com.example.frames_demo.common.frame_calculations.RollingFrameStats;
+import com.example.frames_demo.firebase.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link FrameMetricsAggregator} which reads the frames of the shared {@link FrameSource} of the
+ * activity window instead of registering its own frame metrics listener.
+ *
+ * <p>Next to the millisecond {@link FrameMetricsAggregator#TOTAL_INDEX} buckets of the default
+ * aggregator, it bins every {@link FrameSample} stage and the total duration of the frames in
+ * microseconds, and classifies each frame against its own budget in nanoseconds, so frames at
+ * 90/120Hz are not misclassified by rounding to whole milliseconds.
+ *
+ * <p>All values are cumulative, a recording is the difference of two {@link Snapshot}s.
+ */
+public class FrameStageAggregator extends FrameMetricsAggregator
+        implements FrameSource.Consumer {
+    /**
+     * Index of the total duration histogram, after the {@link FrameSample} stages.
+     */
+    public static final int TOTAL_STAGE = FrameSample.STAGE_COUNT;
+    private static final int HISTOGRAM_COUNT = TOTAL_STAGE + 1;
+
+    private static final int NANOS_PER_MS = 1_000_000;
+    // rounding value adds half a millisecond, for rounding to nearest ms
+    private static final int NANOS_ROUNDING_VALUE = NANOS_PER_MS / 2;
+    private static final long FROZEN_FRAME_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Constants.FROZEN_FRAME_TIME);
+
+    /**
+     * A primitive copy of the cumulative values of the aggregator.
+     */
+    public static final class Snapshot {
+        final long frameCount;
+        final long slowFrameCount;
+        final long frozenFrameCount;
+        final long delayNanos;
+        // in microseconds, indexed by FrameSample stage and TOTAL_STAGE, the stages are null if
+        // they were not copied
+        final @NonNull FrameDurationHistogram[] histograms;
+
+        Snapshot(
+                long frameCount,
+                long slowFrameCount,
+                long frozenFrameCount,
+                long delayNanos,
+                @NonNull FrameDurationHistogram[] histograms) {
+            this.frameCount = frameCount;
+            this.slowFrameCount = slowFrameCount;
+            this.frozenFrameCount = frozenFrameCount;
+            this.delayNanos = delayNanos;
+            this.histograms = histograms;
+        }
+    }
+
+    private final List<Window> windows = new ArrayList<>();
+    private @Nullable SparseIntArray[] metrics = new SparseIntArray[LAST_INDEX + 1];
+
+    private final FrameDurationHistogram[] histograms = new FrameDurationHistogram[HISTOGRAM_COUNT];
+    private long frameCount;
+    private long slowFrameCount;
+    private long frozenFrameCount;
+    private long delayNanos;
+    private final RollingFrameStats rollingFrameStats = new RollingFrameStats();
+
+    public FrameStageAggregator() {
+        metrics[TOTAL_INDEX] = new SparseIntArray();
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            histograms[i] = FrameDurationHistogram.ofMicros();
+        }
+    }
+
+    @Override
+    public void add(@NonNull Activity activity) {
+        final Window window = activity.getWindow();
+        synchronized (this) {
+            if (windows.contains(window)) {
+                return;
+            }
+            windows.add(window);
+        }
+        FrameSource.forWindow(window).addConsumer(this);
+    }
+
+    @Override
+    public @Nullable SparseIntArray[] remove(@NonNull Activity activity) {
+        final Window window = activity.getWindow();
+        synchronized (this) {
+            windows.remove(window);
+        }
+        FrameSource.forWindow(window).removeConsumer(this);
+        return getMetrics();
+    }
+
+    @Override
+    public @Nullable SparseIntArray[] stop() {
+        final List<Window> stopped;
+        synchronized (this) {
+            stopped = new ArrayList<>(windows);
+            windows.clear();
+        }
+        for (Window window : stopped) {
+            FrameSource.forWindow(window).removeConsumer(this);
+        }
+        return getMetrics();
+    }
+
+    @Override
+    public synchronized @Nullable SparseIntArray[] reset() {
+        final SparseIntArray[] returnVal = metrics;
+        metrics = new SparseIntArray[LAST_INDEX + 1];
+        metrics[TOTAL_INDEX] = new SparseIntArray();
+        for (FrameDurationHistogram histogram : histograms) {
+            histogram.clear();
+        }
+        frameCount = 0;
+        slowFrameCount = 0;
+        frozenFrameCount = 0;
+        delayNanos = 0;
+        return returnVal;
+    }
+
+    @Override
+    public synchronized @Nullable SparseIntArray[] getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the frames of the last seconds, which can be read while a trace is running.
+     */
+    public @NonNull RollingFrameStats getRollingFrameStats() {
+        return rollingFrameStats;
+    }
+
+    /**
+     * Copies the values recorded so far. The histograms are compact copies of the range of
+     * durations recorded, a few hundred buckets at most, so the frame thread only waits for the
+     * copy of those while a snapshot is taken.
+     *
+     * @param withStages false to only copy the total durations, for traces which don't report
+     *                   the stages
+     */
+    public synchronized @NonNull Snapshot takeSnapshot(boolean withStages) {
+        final FrameDurationHistogram[] copies = new FrameDurationHistogram[HISTOGRAM_COUNT];
+        for (int i = withStages ? 0 : TOTAL_STAGE; i < HISTOGRAM_COUNT; i++) {
+            copies[i] = histograms[i].copy();
+        }
+        return new Snapshot(frameCount, slowFrameCount, frozenFrameCount, delayNanos, copies);
+    }
+
+    @Override
+    public synchronized void onFrameSample(@NonNull FrameSample frameSample) {
+        final long totalDurationNanos = frameSample.getTotalDurationNanos();
+        final SparseIntArray totalMetrics = metrics[TOTAL_INDEX];
+        final int durationMs = (int) ((totalDurationNanos + NANOS_ROUNDING_VALUE) / NANOS_PER_MS);
+        if (durationMs >= 0) {
+            totalMetrics.put(durationMs, totalMetrics.get(durationMs) + 1);
+        }
+
+        for (int stage = 0; stage < FrameSample.STAGE_COUNT; stage++) {
+            histograms[stage].record(
+                    TimeUnit.NANOSECONDS.toMicros(frameSample.getStageDurationNanos(stage)));
+        }
+        histograms[TOTAL_STAGE].record(TimeUnit.NANOSECONDS.toMicros(totalDurationNanos));
+
+        frameCount++;
+        // each frame against its own budget, which follows refresh rate changes
+        final long frameBudgetNanos = frameSample.getFrameBudgetNanos();
+        final boolean isFrozen = totalDurationNanos > FROZEN_FRAME_NANOS;
+        final boolean isSlow = !isFrozen && totalDurationNanos > frameBudgetNanos;
+        final long frameDelayNanos = Math.max(0, totalDurationNanos - frameBudgetNanos);
+        if (isFrozen) {
+            frozenFrameCount++;
+        } else if (isSlow) {
+            slowFrameCount++;
+        }
+        delayNanos += frameDelayNanos;
+        rollingFrameStats.record(
+                frameSample.getEstimatedStartNanos(), frameDelayNanos, isSlow, isFrozen);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.frames_demo.firebase.frame_calculations;
+
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A primitive copy of the cumulative frame times recorded by a {@link
+ * androidx.core.app.FrameMetricsAggregator}, taken when a trace starts. The frames of the trace are
+ * the difference between the frame times at its end and this snapshot.
+ *
+ * <p>The frames of a {@link FrameStageAggregator} are kept as its own {@link
+ * FrameStageAggregator.Snapshot} instead.
+ */
+final class FrameTimesSnapshot {
+    // ascending, like the keys of the SparseIntArray
+    private final int[] durationsMs;
+    private final int[] counts;
+    private final @Nullable FrameStageAggregator.Snapshot stageSnapshot;
+
+    private FrameTimesSnapshot(
+            @NonNull int[] durationsMs,
+            @NonNull int[] counts,
+            @Nullable FrameStageAggregator.Snapshot stageSnapshot) {
+        this.durationsMs = durationsMs;
+        this.counts = counts;
+        this.stageSnapshot = stageSnapshot;
+    }
+
+    static @NonNull FrameTimesSnapshot of(@NonNull SparseIntArray frameTimes) {
+        final int size = frameTimes.size();
+        final int[] durationsMs = new int[size];
+        final int[] counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            durationsMs[i] = frameTimes.keyAt(i);
+            counts[i] = frameTimes.valueAt(i);
+        }
+        return new FrameTimesSnapshot(durationsMs, counts, null);
+    }
+
+    static @NonNull FrameTimesSnapshot of(@NonNull FrameStageAggregator.Snapshot stageSnapshot) {
+        return new FrameTimesSnapshot(new int[0], new int[0], stageSnapshot);
+    }
+
+    static @NonNull FrameTimesSnapshot empty() {
+        return new FrameTimesSnapshot(new int[0], new int[0], null);
+    }
+
+    @Nullable FrameStageAggregator.Snapshot getStageSnapshot() {
+        return stageSnapshot;
+    }
+
+    int size() {
+        return durationsMs.length;
+    }
+
+    int durationMsAt(int index) {
+        return durationsMs[index];
+    }
+
+    int countAt(int index) {
+        return counts[index];
+    }
+}
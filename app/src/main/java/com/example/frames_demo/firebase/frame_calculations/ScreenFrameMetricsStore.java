@@ -0,0 +1,129 @@
+package com.example.frames_demo.firebase.frame_calculations;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates the frame metrics of all traces of a screen, e.g. all the times a fragment was
+ * resumed.
+ *
+ * <p>The number of screens is bounded, once it is reached the least recently recorded screen is
+ * dropped, so the store doesn't grow with the number of screens of the app.
+ */
+public class ScreenFrameMetricsStore {
+    private static final int DEFAULT_MAX_SCREENS = 64;
+
+    public static final class ScreenFrameMetrics {
+        private final @NonNull String screenName;
+        private int traceCount;
+        private long totalFrames;
+        private long slowFrames;
+        private long frozenFrames;
+        private long totalDelayDuration;
+        private final FrameDurationHistogram frameDurationHistogram =
+                FrameDurationHistogram.ofMillis();
+
+        ScreenFrameMetrics(@NonNull String screenName) {
+            this.screenName = screenName;
+        }
+
+        void add(@NonNull AppFrameMetricsCalculator.PerfFrameMetrics frameMetrics) {
+            traceCount++;
+            totalFrames += frameMetrics.getTotalFrames();
+            slowFrames += frameMetrics.getSlowFrames();
+            frozenFrames += frameMetrics.getFrozenFrames();
+            totalDelayDuration += frameMetrics.getTotalDelayDuration();
+            frameDurationHistogram.merge(frameMetrics.getFrameDurationHistogram());
+        }
+
+        public @NonNull String getScreenName() {
+            return screenName;
+        }
+
+        /**
+         * Returns the number of traces aggregated for the screen.
+         */
+        public int getTraceCount() {
+            return traceCount;
+        }
+
+        public long getTotalFrames() {
+            return totalFrames;
+        }
+
+        public long getSlowFrames() {
+            return slowFrames;
+        }
+
+        public long getFrozenFrames() {
+            return frozenFrames;
+        }
+
+        /**
+         * Returns the delay of all traces of the screen in milliseconds.
+         */
+        public long getTotalDelayDuration() {
+            return totalDelayDuration;
+        }
+
+        /**
+         * Returns the durations of all frames of the screen in milliseconds.
+         */
+        public @NonNull FrameDurationHistogram getFrameDurationHistogram() {
+            return frameDurationHistogram;
+        }
+    }
+
+    private final Map<String, ScreenFrameMetrics> screens;
+
+    public ScreenFrameMetricsStore() {
+        this(DEFAULT_MAX_SCREENS);
+    }
+
+    /**
+     * @param maxScreens the maximum number of screens kept in the store
+     */
+    public ScreenFrameMetricsStore(final int maxScreens) {
+        // access ordered, so the eldest entry is the least recently recorded screen
+        this.screens = new LinkedHashMap<String, ScreenFrameMetrics>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ScreenFrameMetrics> eldest) {
+                return size() > maxScreens;
+            }
+        };
+    }
+
+    /**
+     * Adds the frame metrics of a trace to the aggregate of the screen.
+     */
+    public synchronized void add(
+            @NonNull String screenName,
+            @NonNull AppFrameMetricsCalculator.PerfFrameMetrics frameMetrics) {
+        ScreenFrameMetrics screen = screens.get(screenName);
+        if (screen == null) {
+            screen = new ScreenFrameMetrics(screenName);
+            screens.put(screenName, screen);
+        }
+        screen.add(frameMetrics);
+    }
+
+    public synchronized @Nullable ScreenFrameMetrics get(@NonNull String screenName) {
+        return screens.get(screenName);
+    }
+
+    /**
+     * Returns the screens in the store, the most recently recorded last.
+     */
+    public synchronized @NonNull List<ScreenFrameMetrics> getAll() {
+        return new ArrayList<>(screens.values());
+    }
+
+    public synchronized void clear() {
+        screens.clear();
+    }
+}
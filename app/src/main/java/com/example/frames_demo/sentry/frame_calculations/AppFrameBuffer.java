@@ -0,0 +1,554 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import com.example.frames_demo.common.frame_calculations.FrameSample;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-capacity ring buffer of frames, stored as parallel primitive columns so that recording a
+ * frame never allocates.
+ *
+ * <p>Frames are addressed by their absolute index, i.e. the number of frames written before them.
+ * The buffer has a single writer (the frame metrics handler thread); a frame becomes visible to
+ * readers on other threads once {@link #getEndIndex()} has moved past it. When the buffer is full
+ * the oldest frame is overwritten, so readers must check {@link #isAvailable(long)} after reading.
+ *
+ * <p>Next to each frame the buffer keeps the running totals of slow/frozen counts, delays and
+ * durations up to and including that frame, so the totals of any range of frames are the difference
+ * of two prefix sums.
+ *
+ * <p>Each frame also keeps the duration of its {@link FrameSample} stages, in microseconds to keep
+ * the buffer compact, and its dominant stage, to which the whole delay of the frame is attributed.
+ *
+ * <p>Besides slow frames, the buffer holds frames which are on time on the main thread but missed
+ * their deadline because of the render thread or the gpu. Their delay is kept apart from the one of
+ * slow frames.
+ *
+ * <p>The totals of a span whose first frames were overwritten come from a {@link TotalsMark}: the
+ * running totals right before the first frame of the span, captured by the writer, which stay
+ * available however long the span is.
+ */
+final class AppFrameBuffer {
+    private static final int FLAG_SLOW = 1;
+    private static final int FLAG_FROZEN = 1 << 1;
+    // the dominant stage + 1 is stored in the flags above the slow and frozen bits, 0 if unknown
+    private static final int DOMINANT_STAGE_SHIFT = 2;
+    private static final int DOMINANT_STAGE_MASK = 0xf << DOMINANT_STAGE_SHIFT;
+    private static final int FLAG_RENDER_JANK = 1 << 6;
+    private static final int STAGE_COUNT = FrameSample.STAGE_COUNT;
+
+    /**
+     * The running totals of the buffer right before the first frame ending at or after a
+     * timestamp. The writer fills in the totals and then publishes the mark through its index.
+     */
+    static final class TotalsMark {
+        final long timestampNanos;
+        // the index of the first frame ending at or after the timestamp, -1 until it's written
+        private volatile long index = -1;
+        private long slowCount;
+        private long frozenCount;
+        private long slowDelayNanos;
+        private long frozenDelayNanos;
+        private long durationNanos;
+        private long renderJankCount;
+        private long renderJankDelayNanos;
+        private final long[] stageDelayNanos = new long[STAGE_COUNT];
+
+        private TotalsMark(final long timestampNanos) {
+            this.timestampNanos = timestampNanos;
+        }
+
+        /**
+         * Returns the index of the first frame ending at or after the timestamp, or -1 if no
+         * such frame has been written yet.
+         */
+        long getIndex() {
+            return index;
+        }
+    }
+
+    private final int capacity;
+    private final long[] startNanos;
+    private final long[] endNanos;
+    private final long[] durationNanos;
+    private final long[] delayNanos;
+    private final long[] renderDelayNanos;
+    private final long[] expectedDurationNanos;
+    private final byte[] flags;
+    // STAGE_COUNT consecutive values per frame
+    private final int[] stageDurationMicros;
+
+    private final long[] cumulativeSlowCount;
+    private final long[] cumulativeFrozenCount;
+    private final long[] cumulativeSlowDelayNanos;
+    private final long[] cumulativeFrozenDelayNanos;
+    private final long[] cumulativeDurationNanos;
+    private final long[] cumulativeRenderJankCount;
+    private final long[] cumulativeRenderJankDelayNanos;
+    // STAGE_COUNT consecutive values per frame
+    private final long[] cumulativeStageDelayNanos;
+
+    // running totals, only accessed by the writer
+    private long totalSlowCount;
+    private long totalFrozenCount;
+    private long totalSlowDelayNanos;
+    private long totalFrozenDelayNanos;
+    private long totalDurationNanos;
+    private long totalRenderJankCount;
+    private long totalRenderJankDelayNanos;
+    private final long[] totalStageDelayNanos = new long[STAGE_COUNT];
+
+    /**
+     * Total number of frames ever written. Written only by the writer thread, after the frame
+     * columns, which publishes the frame to readers.
+     */
+    private volatile long writeCount;
+
+    // marks waiting for their first frame, copied on write so that the writer checks them without
+    // locking
+    private final Object marksLock = new Object();
+    private volatile TotalsMark[] pendingMarks = new TotalsMark[0];
+
+    AppFrameBuffer(final int capacity) {
+        this.capacity = capacity;
+        this.startNanos = new long[capacity];
+        this.endNanos = new long[capacity];
+        this.durationNanos = new long[capacity];
+        this.delayNanos = new long[capacity];
+        this.renderDelayNanos = new long[capacity];
+        this.expectedDurationNanos = new long[capacity];
+        this.flags = new byte[capacity];
+        this.stageDurationMicros = new int[capacity * STAGE_COUNT];
+        this.cumulativeSlowCount = new long[capacity];
+        this.cumulativeFrozenCount = new long[capacity];
+        this.cumulativeSlowDelayNanos = new long[capacity];
+        this.cumulativeFrozenDelayNanos = new long[capacity];
+        this.cumulativeDurationNanos = new long[capacity];
+        this.cumulativeRenderJankCount = new long[capacity];
+        this.cumulativeRenderJankDelayNanos = new long[capacity];
+        this.cumulativeStageDelayNanos = new long[capacity * STAGE_COUNT];
+    }
+
+    /**
+     * Appends a frame, overwriting the oldest one if the buffer is full. Frames have to be added
+     * in increasing order of their end timestamp.
+     *
+     * @param frameRenderDelayNanos the delay of a frame which is not slow on the main thread but
+     *                              missed its deadline because of the render thread or the gpu,
+     *                              0 otherwise
+     * @param frameSample           the stages of the frame, or null if they are unknown
+     */
+    void add(
+            final long frameStartNanos,
+            final long frameEndNanos,
+            final long frameDurationNanos,
+            final long frameDelayNanos,
+            final boolean isSlow,
+            final boolean isFrozen,
+            final long frameRenderDelayNanos,
+            final long frameExpectedDurationNanos,
+            final @Nullable FrameSample frameSample) {
+        final long index = writeCount;
+        final TotalsMark[] marks = pendingMarks;
+        if (marks.length > 0) {
+            resolveMarks(marks, index, frameEndNanos);
+        }
+        final int slot = slot(index);
+        startNanos[slot] = frameStartNanos;
+        endNanos[slot] = frameEndNanos;
+        durationNanos[slot] = frameDurationNanos;
+        delayNanos[slot] = frameDelayNanos;
+        renderDelayNanos[slot] = frameRenderDelayNanos;
+        expectedDurationNanos[slot] = frameExpectedDurationNanos;
+        final boolean isRenderJank = frameRenderDelayNanos > 0;
+        // render jank frames were on time on the main thread
+        final int dominantStage = frameSample == null
+                ? FrameSample.STAGE_NONE
+                : isRenderJank
+                        ? frameSample.getDominantRenderStage()
+                        : frameSample.getDominantUiStage();
+        flags[slot] = (byte) ((isSlow ? FLAG_SLOW : 0)
+                | (isFrozen ? FLAG_FROZEN : 0)
+                | (isRenderJank ? FLAG_RENDER_JANK : 0)
+                | ((dominantStage + 1) << DOMINANT_STAGE_SHIFT));
+        final int stageOffset = slot * STAGE_COUNT;
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            stageDurationMicros[stageOffset + stage] = frameSample != null
+                    ? (int) TimeUnit.NANOSECONDS.toMicros(frameSample.getStageDurationNanos(stage))
+                    : 0;
+        }
+
+        // same classification as AppFramesMetrics.addFrame
+        if (isFrozen) {
+            totalFrozenCount += 1;
+            totalFrozenDelayNanos += frameDelayNanos;
+        } else if (isSlow) {
+            totalSlowCount += 1;
+            totalSlowDelayNanos += frameDelayNanos;
+        }
+        if (isRenderJank) {
+            totalRenderJankCount += 1;
+            totalRenderJankDelayNanos += frameRenderDelayNanos;
+        }
+        totalDurationNanos += frameDurationNanos;
+        cumulativeSlowCount[slot] = totalSlowCount;
+        cumulativeFrozenCount[slot] = totalFrozenCount;
+        cumulativeSlowDelayNanos[slot] = totalSlowDelayNanos;
+        cumulativeFrozenDelayNanos[slot] = totalFrozenDelayNanos;
+        cumulativeDurationNanos[slot] = totalDurationNanos;
+        cumulativeRenderJankCount[slot] = totalRenderJankCount;
+        cumulativeRenderJankDelayNanos[slot] = totalRenderJankDelayNanos;
+        if (dominantStage != FrameSample.STAGE_NONE) {
+            totalStageDelayNanos[dominantStage] +=
+                    jankDelayNanos(frameDelayNanos, frameRenderDelayNanos);
+        }
+        System.arraycopy(
+                totalStageDelayNanos, 0, cumulativeStageDelayNanos, stageOffset, STAGE_COUNT);
+
+        writeCount = index + 1;
+    }
+
+    /**
+     * Creates a mark of the running totals right before the first frame ending at or after the
+     * given timestamp. It is resolved by the writer with the next frame, from the frames already
+     * written if the timestamp is in the past.
+     */
+    TotalsMark mark(final long timestampNanos) {
+        final TotalsMark mark = new TotalsMark(timestampNanos);
+        synchronized (marksLock) {
+            final TotalsMark[] marks = Arrays.copyOf(pendingMarks, pendingMarks.length + 1);
+            marks[marks.length - 1] = mark;
+            pendingMarks = marks;
+        }
+        return mark;
+    }
+
+    /**
+     * Resolves the marks whose first frame is already written or is the frame about to be written.
+     * Only called by the writer.
+     *
+     * @param index the index of the frame about to be written
+     */
+    private void resolveMarks(
+            final TotalsMark[] marks, final long index, final long frameEndNanos) {
+        boolean isAnyResolved = false;
+        for (TotalsMark mark : marks) {
+            final long markIndex =
+                    indexOfFirstEndingAtOrAfter(mark.timestampNanos, getStartIndex(), index);
+            if (markIndex == index && frameEndNanos < mark.timestampNanos) {
+                continue;
+            }
+            if (markIndex == index) {
+                mark.slowCount = totalSlowCount;
+                mark.frozenCount = totalFrozenCount;
+                mark.slowDelayNanos = totalSlowDelayNanos;
+                mark.frozenDelayNanos = totalFrozenDelayNanos;
+                mark.durationNanos = totalDurationNanos;
+                mark.renderJankCount = totalRenderJankCount;
+                mark.renderJankDelayNanos = totalRenderJankDelayNanos;
+                System.arraycopy(totalStageDelayNanos, 0, mark.stageDelayNanos, 0, STAGE_COUNT);
+            } else {
+                // the mark is older than the frame, so its totals are the ones of an earlier
+                // frame, at worst the oldest one still available
+                setTotalsBefore(mark, markIndex);
+            }
+            mark.index = markIndex;
+            isAnyResolved = true;
+        }
+        if (isAnyResolved) {
+            synchronized (marksLock) {
+                int pendingCount = 0;
+                for (TotalsMark mark : pendingMarks) {
+                    if (mark.index < 0) {
+                        pendingCount++;
+                    }
+                }
+                final TotalsMark[] pending = new TotalsMark[pendingCount];
+                pendingCount = 0;
+                for (TotalsMark mark : pendingMarks) {
+                    if (mark.index < 0) {
+                        pending[pendingCount++] = mark;
+                    }
+                }
+                pendingMarks = pending;
+            }
+        }
+    }
+
+    /**
+     * Sets the running totals right before the frame at the given index, which must be available,
+     * as the totals of the given mark.
+     */
+    private void setTotalsBefore(final TotalsMark mark, final long index) {
+        final int slot = slot(index);
+        final boolean isRenderJank = (flags[slot] & FLAG_RENDER_JANK) != 0;
+        final boolean isFrozen = (flags[slot] & FLAG_FROZEN) != 0;
+        final boolean isSlow = !isFrozen && (flags[slot] & FLAG_SLOW) != 0;
+        // the cumulative values are inclusive, so the frame itself has to be taken out
+        mark.slowCount = cumulativeSlowCount[slot] - (isSlow ? 1 : 0);
+        mark.frozenCount = cumulativeFrozenCount[slot] - (isFrozen ? 1 : 0);
+        mark.slowDelayNanos = cumulativeSlowDelayNanos[slot] - (isSlow ? delayNanos[slot] : 0);
+        mark.frozenDelayNanos =
+                cumulativeFrozenDelayNanos[slot] - (isFrozen ? delayNanos[slot] : 0);
+        mark.durationNanos = cumulativeDurationNanos[slot] - durationNanos[slot];
+        mark.renderJankCount = cumulativeRenderJankCount[slot] - (isRenderJank ? 1 : 0);
+        mark.renderJankDelayNanos = cumulativeRenderJankDelayNanos[slot] - renderDelayNanos[slot];
+        final int dominantStage = dominantStageOfSlot(slot);
+        final int offset = slot * STAGE_COUNT;
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            mark.stageDelayNanos[stage] = cumulativeStageDelayNanos[offset + stage]
+                    - (stage == dominantStage
+                    ? jankDelayNanos(delayNanos[slot], renderDelayNanos[slot])
+                    : 0);
+        }
+    }
+
+    /**
+     * Adds the totals of the frames from the first frame of a resolved mark up to the given
+     * index to the given metrics. Those frames may have been overwritten already, only the frame
+     * at the given index has to be available, which readers check after reading.
+     */
+    void addTotalsSince(
+            final TotalsMark mark, final long endIndex, final AppFramesMetrics framesMetrics) {
+        final TotalsMark end = new TotalsMark(mark.timestampNanos);
+        setTotalsBefore(end, endIndex);
+        framesMetrics.addTotals(
+                (int) (end.slowCount - mark.slowCount),
+                (int) (end.frozenCount - mark.frozenCount),
+                end.slowDelayNanos - mark.slowDelayNanos,
+                end.frozenDelayNanos - mark.frozenDelayNanos,
+                end.durationNanos - mark.durationNanos);
+        framesMetrics.addRenderJankTotals(
+                (int) (end.renderJankCount - mark.renderJankCount),
+                end.renderJankDelayNanos - mark.renderJankDelayNanos);
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            framesMetrics.addStageDelay(
+                    stage, end.stageDelayNanos[stage] - mark.stageDelayNanos[stage]);
+        }
+    }
+
+    /**
+     * Returns the index of the oldest frame that is still available.
+     */
+    long getStartIndex() {
+        return Math.max(0, writeCount - capacity);
+    }
+
+    /**
+     * Returns the index after the newest frame that has been published.
+     */
+    long getEndIndex() {
+        return writeCount;
+    }
+
+    /**
+     * Returns true if the frame at the given index has not been overwritten yet. Readers call this
+     * after reading a range, as the writer might have wrapped around in the meantime.
+     */
+    boolean isAvailable(final long index) {
+        return index >= writeCount - capacity;
+    }
+
+    /**
+     * Returns the index of the first frame within [startIndex, endIndex) whose end timestamp is
+     * greater than or equal to the given timestamp, or endIndex if there is none.
+     */
+    long indexOfFirstEndingAtOrAfter(
+            final long timestampNanos, final long startIndex, final long endIndex) {
+        long low = startIndex;
+        long high = endIndex;
+        while (low < high) {
+            final long mid = (low + high) >>> 1;
+            if (endNanos[slot(mid)] < timestampNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first frame within [startIndex, endIndex) whose start timestamp is
+     * greater than the given timestamp, or endIndex if there is none.
+     */
+    long indexOfFirstStartingAfter(
+            final long timestampNanos, final long startIndex, final long endIndex) {
+        long low = startIndex;
+        long high = endIndex;
+        while (low < high) {
+            final long mid = (low + high) >>> 1;
+            if (startNanos[slot(mid)] <= timestampNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds the totals of all frames within [startIndex, endIndex) to the given metrics, without
+     * adding the frames themselves.
+     */
+    void addTotals(
+            final long startIndex, final long endIndex, final AppFramesMetrics framesMetrics) {
+        if (startIndex >= endIndex) {
+            return;
+        }
+        final int first = slot(startIndex);
+        final int last = slot(endIndex - 1);
+        final long firstDelayNanos = delayNanos[first];
+        final long firstRenderDelayNanos = renderDelayNanos[first];
+        final boolean firstIsRenderJank = (flags[first] & FLAG_RENDER_JANK) != 0;
+        final boolean firstIsFrozen = (flags[first] & FLAG_FROZEN) != 0;
+        final boolean firstIsSlow = !firstIsFrozen && (flags[first] & FLAG_SLOW) != 0;
+
+        // the cumulative values are inclusive, so the first frame has to be added back
+        framesMetrics.addTotals(
+                (int) (cumulativeSlowCount[last] - cumulativeSlowCount[first]) + (firstIsSlow ? 1 : 0),
+                (int) (cumulativeFrozenCount[last] - cumulativeFrozenCount[first]) + (firstIsFrozen ? 1 : 0),
+                cumulativeSlowDelayNanos[last] - cumulativeSlowDelayNanos[first]
+                        + (firstIsSlow ? firstDelayNanos : 0),
+                cumulativeFrozenDelayNanos[last] - cumulativeFrozenDelayNanos[first]
+                        + (firstIsFrozen ? firstDelayNanos : 0),
+                cumulativeDurationNanos[last] - cumulativeDurationNanos[first]
+                        + durationNanos[first]);
+        framesMetrics.addRenderJankTotals(
+                (int) (cumulativeRenderJankCount[last] - cumulativeRenderJankCount[first])
+                        + (firstIsRenderJank ? 1 : 0),
+                cumulativeRenderJankDelayNanos[last] - cumulativeRenderJankDelayNanos[first]
+                        + firstRenderDelayNanos);
+
+        final int firstDominantStage = dominantStageOfSlot(first);
+        final int firstOffset = first * STAGE_COUNT;
+        final int lastOffset = last * STAGE_COUNT;
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            framesMetrics.addStageDelay(
+                    stage,
+                    cumulativeStageDelayNanos[lastOffset + stage]
+                            - cumulativeStageDelayNanos[firstOffset + stage]
+                            + (stage == firstDominantStage
+                            ? jankDelayNanos(firstDelayNanos, firstRenderDelayNanos)
+                            : 0));
+        }
+    }
+
+    /**
+     * Returns true if the frame at the given index is entirely within the span.
+     */
+    boolean isContained(final long index, final long spanStartNanos, final long spanFinishNanos) {
+        final int slot = slot(index);
+        return startNanos[slot] >= spanStartNanos && endNanos[slot] <= spanFinishNanos;
+    }
+
+    /**
+     * Adds the part of the frame at the given index which is within the span to the given metrics,
+     * if the span starts or ends within the frame. The delay of the frame before the span start is
+     * left out.
+     */
+    void addFrameIntersection(
+            final long index,
+            final long spanStartNanos,
+            final long spanFinishNanos,
+            final AppFramesMetrics framesMetrics) {
+        final int slot = slot(index);
+        final long frameStartNanos = startNanos[slot];
+        final long frameEndNanos = endNanos[slot];
+        if ((spanStartNanos > frameStartNanos && spanStartNanos < frameEndNanos)
+                || (spanFinishNanos > frameStartNanos && spanFinishNanos < frameEndNanos)) {
+            // span start or end are within frame
+            // calculate the intersection
+            final long frameExpectedDurationNanos = expectedDurationNanos[slot];
+            final long durationBeforeSpan = Math.max(0, spanStartNanos - frameStartNanos);
+            final long delayBeforeSpan =
+                    Math.max(0, durationBeforeSpan - frameExpectedDurationNanos);
+            final long delayWithinSpan =
+                    Math.min(delayNanos[slot] - delayBeforeSpan,
+                            spanFinishNanos - spanStartNanos);
+
+            final long frameStart = Math.max(spanStartNanos, frameStartNanos);
+            final long frameEnd = Math.min(spanFinishNanos, frameEndNanos);
+            final long frameDuration = frameEnd - frameStart;
+            if (renderDelayNanos[slot] > 0) {
+                framesMetrics.addRenderJankFrame(
+                        frameStart,
+                        frameDuration,
+                        Math.min(renderDelayNanos[slot], spanFinishNanos - spanStartNanos),
+                        dominantStageOfSlot(slot));
+                return;
+            }
+            framesMetrics.addFrame(
+                    frameStart,
+                    frameDuration,
+                    delayWithinSpan,
+                    FrameMetricsCollector.isSlow(frameDuration, frameExpectedDurationNanos),
+                    FrameMetricsCollector.isFrozen(frameDuration),
+                    dominantStageOfSlot(slot)
+            );
+        }
+    }
+
+    long getStartNanos(final long index) {
+        return startNanos[slot(index)];
+    }
+
+    long getEndNanos(final long index) {
+        return endNanos[slot(index)];
+    }
+
+    long getDurationNanos(final long index) {
+        return durationNanos[slot(index)];
+    }
+
+    long getDelayNanos(final long index) {
+        return delayNanos[slot(index)];
+    }
+
+    long getExpectedDurationNanos(final long index) {
+        return expectedDurationNanos[slot(index)];
+    }
+
+    boolean isSlow(final long index) {
+        return (flags[slot(index)] & FLAG_SLOW) != 0;
+    }
+
+    boolean isFrozen(final long index) {
+        return (flags[slot(index)] & FLAG_FROZEN) != 0;
+    }
+
+    long getRenderDelayNanos(final long index) {
+        return renderDelayNanos[slot(index)];
+    }
+
+    /**
+     * Returns the stage which took the longest to create the frame, or
+     * {@link FrameSample#STAGE_NONE} if the stages are unknown.
+     */
+    int getDominantStage(final long index) {
+        return dominantStageOfSlot(slot(index));
+    }
+
+    long getStageDurationNanos(final long index, final int stage) {
+        return TimeUnit.MICROSECONDS.toNanos(stageDurationMicros[slot(index) * STAGE_COUNT + stage]);
+    }
+
+    private int dominantStageOfSlot(final int slot) {
+        return ((flags[slot] & DOMINANT_STAGE_MASK) >> DOMINANT_STAGE_SHIFT) - 1;
+    }
+
+    /**
+     * Returns the delay attributed to the dominant stage: the delay on the main thread for slow
+     * frames, the delay beyond the deadline otherwise.
+     */
+    private static long jankDelayNanos(final long delayNanos, final long renderDelayNanos) {
+        return renderDelayNanos > 0 ? renderDelayNanos : delayNanos;
+    }
+
+    private int slot(final long index) {
+        return (int) (index % capacity);
+    }
+}
@@ -2,14 +2,17 @@ package com.example.frames_demo.sentry.frame_calculations;
 
 import android.util.Log;
 
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
+import com.example.frames_demo.common.frame_calculations.FrameSample;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
 
 final class AppFramesMetrics {
 
-    private final List<AppFrameMetrics> frames = new LinkedList<>();
+    private final SpanFrames frames = new SpanFrames();
+    // false to only add up the totals of the frames
+    private final boolean withFrames;
     private int totalFrameCount;
 
     private int slowFrameCount;
@@ -20,31 +23,133 @@ final class AppFramesMetrics {
 
     private long totalDurationNanos;
 
+    // frames which are on time on the main thread, but missed their deadline because of the
+    // render thread or the gpu
+    private int renderJankFrameCount;
+    private long renderJankDelayNanos;
+
+    // the delay of each frame is attributed to its dominant stage
+    private final long[] stageDelayNanos = new long[FrameSample.STAGE_COUNT];
+
+    /**
+     * @param withFrames true to keep the details of each frame, false to only add up the totals
+     */
+    AppFramesMetrics(final boolean withFrames) {
+        this.withFrames = withFrames;
+    }
+
     public void addFrame(
             final long frameStartNano,
             final long durationNanos,
             final long delayNanos,
             final boolean isSlow,
-            final boolean isFrozen) {
-        long frameStart = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - frameStartNano);
-        frames.add(new AppFrameMetrics(
-                frameStart,
-                durationNanos,
-                delayNanos,
-                isSlow,
-                isFrozen
-        ));
+            final boolean isFrozen,
+            final int dominantStage) {
+        addFrameDetails(
+                frameStartNano, durationNanos, delayNanos, isSlow, isFrozen, 0, dominantStage, null);
         totalDurationNanos += durationNanos;
         if (isFrozen) {
+            addStageDelay(dominantStage, delayNanos);
             frozenFrameDelayNanos += delayNanos;
             frozenFrameCount += 1;
         } else if (isSlow) {
+            addStageDelay(dominantStage, delayNanos);
             slowFrameDelayNanos += delayNanos;
             Log.d("Sentry", "Slow frame:"+slowFrameDelayNanos);
             slowFrameCount += 1;
         }
     }
 
+    /**
+     * Adds a frame which missed its deadline because of the render thread or the gpu, while being
+     * on time on the main thread.
+     */
+    public void addRenderJankFrame(
+            final long frameStartNano,
+            final long durationNanos,
+            final long renderDelayNanos,
+            final int dominantStage) {
+        addFrameDetails(
+                frameStartNano, durationNanos, 0, false, false, renderDelayNanos, dominantStage, null);
+        totalDurationNanos += durationNanos;
+        renderJankFrameCount += 1;
+        this.renderJankDelayNanos += renderDelayNanos;
+        addStageDelay(dominantStage, renderDelayNanos);
+    }
+
+    /**
+     * Adds a frame to the frames list only, its values have to be added through {@link #addTotals}
+     * and {@link #addStageDelay}.
+     *
+     * @param stageDurationNanos the duration of each stage of the frame, or null if unknown, which
+     *                           is copied
+     */
+    void addFrameDetails(
+            final long frameStartNano,
+            final long durationNanos,
+            final long delayNanos,
+            final boolean isSlow,
+            final boolean isFrozen,
+            final long renderDelayNanos,
+            final int dominantStage,
+            final @Nullable long[] stageDurationNanos) {
+        if (!withFrames) {
+            return;
+        }
+        frames.add(
+                frameStartNano,
+                durationNanos,
+                delayNanos,
+                isSlow,
+                isFrozen,
+                renderDelayNanos,
+                dominantStage,
+                stageDurationNanos);
+    }
+
+    /**
+     * Adds the precomputed totals of a range of frames, without adding the frames to the list.
+     */
+    void addTotals(
+            final int slowFrameCount,
+            final int frozenFrameCount,
+            final long slowFrameDelayNanos,
+            final long frozenFrameDelayNanos,
+            final long durationNanos) {
+        this.slowFrameCount += slowFrameCount;
+        this.frozenFrameCount += frozenFrameCount;
+        this.slowFrameDelayNanos += slowFrameDelayNanos;
+        this.frozenFrameDelayNanos += frozenFrameDelayNanos;
+        this.totalDurationNanos += durationNanos;
+    }
+
+    /**
+     * Adds the precomputed render jank totals of a range of frames, without adding the frames to
+     * the list.
+     */
+    void addRenderJankTotals(final int renderJankFrameCount, final long renderJankDelayNanos) {
+        this.renderJankFrameCount += renderJankFrameCount;
+        this.renderJankDelayNanos += renderJankDelayNanos;
+    }
+
+    /**
+     * Attributes a delay to the given stage, delays of frames without known stages are ignored.
+     */
+    void addStageDelay(final int stage, final long delayNanos) {
+        if (stage != FrameSample.STAGE_NONE) {
+            stageDelayNanos[stage] += delayNanos;
+        }
+    }
+
+    /**
+     * Returns the delay of the frames whose dominant stage is the given one.
+     *
+     * @param stage one of the {@link FrameSample} {@code STAGE_*} constants
+     */
+    public long getStageDelayNanos(final int stage) {
+        return stageDelayNanos[stage];
+    }
+
     public int getSlowFrameCount() {
         return slowFrameCount;
     }
@@ -61,6 +166,14 @@ final class AppFramesMetrics {
         return frozenFrameDelayNanos;
     }
 
+    public int getRenderJankFrameCount() {
+        return renderJankFrameCount;
+    }
+
+    public long getRenderJankDelayNanos() {
+        return renderJankDelayNanos;
+    }
+
     /**
      * Returns the sum of the slow and frozen frames.
      */
@@ -72,8 +185,8 @@ final class AppFramesMetrics {
         return totalDurationNanos;
     }
 
-    public List<AppFrameMetrics> getFrames() {
-        return Collections.unmodifiableList(frames);
+    public SpanFrames getFrames() {
+        return frames;
     }
 
     public int getTotalFrameCount() {
@@ -94,6 +207,9 @@ final class AppFramesMetrics {
         frozenFrameDelayNanos = 0;
 
         totalDurationNanos = 0;
+        renderJankFrameCount = 0;
+        renderJankDelayNanos = 0;
+        Arrays.fill(stageDelayNanos, 0);
         totalFrameCount = 0;
     }
 }
@@ -0,0 +1,105 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+/**
+ * A batch of collected frames, stored as parallel primitive columns.
+ *
+ * <p>The {@link FrameMetricsCollector} reuses a single instance for all of its batches, so
+ * listeners must not keep a reference to it after {@link FrameBatchListener#onFrameBatch}
+ * returned, and have to copy the values they need instead.
+ */
+public final class FrameBatch {
+    private static final int FLAG_SLOW = 1;
+    private static final int FLAG_FROZEN = 1 << 1;
+
+    private final int capacity;
+    private final long[] startNanos;
+    private final long[] endNanos;
+    private final long[] durationNanos;
+    private final long[] delayNanos;
+    private final float[] refreshRates;
+    private final byte[] flags;
+    private int size;
+
+    FrameBatch(final int capacity) {
+        this.capacity = capacity;
+        this.startNanos = new long[capacity];
+        this.endNanos = new long[capacity];
+        this.durationNanos = new long[capacity];
+        this.delayNanos = new long[capacity];
+        this.refreshRates = new float[capacity];
+        this.flags = new byte[capacity];
+    }
+
+    void add(
+            final long frameStartNanos,
+            final long frameEndNanos,
+            final long frameDurationNanos,
+            final long frameDelayNanos,
+            final boolean isSlow,
+            final boolean isFrozen,
+            final float refreshRate) {
+        startNanos[size] = frameStartNanos;
+        endNanos[size] = frameEndNanos;
+        durationNanos[size] = frameDurationNanos;
+        delayNanos[size] = frameDelayNanos;
+        refreshRates[size] = refreshRate;
+        flags[size] = (byte) ((isSlow ? FLAG_SLOW : 0) | (isFrozen ? FLAG_FROZEN : 0));
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Returns the number of frames in the batch, frames are addressed from 0 to size - 1 in the
+     * order they were collected.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the start timestamp of a frame in nanoseconds relative to System.nanoTime().
+     */
+    public long getStartNanos(final int index) {
+        return startNanos[index];
+    }
+
+    /**
+     * Returns the end timestamp of a frame in nanoseconds relative to System.nanoTime().
+     */
+    public long getEndNanos(final int index) {
+        return endNanos[index];
+    }
+
+    /**
+     * Returns the time spent from the cpu on the main thread to create the frame, in nanoseconds.
+     */
+    public long getDurationNanos(final int index) {
+        return durationNanos[index];
+    }
+
+    public long getDelayNanos(final int index) {
+        return delayNanos[index];
+    }
+
+    /**
+     * Returns the refresh rate the frame was rendered with.
+     */
+    public float getRefreshRate(final int index) {
+        return refreshRates[index];
+    }
+
+    public boolean isSlow(final int index) {
+        return (flags[index] & FLAG_SLOW) != 0;
+    }
+
+    public boolean isFrozen(final int index) {
+        return (flags[index] & FLAG_FROZEN) != 0;
+    }
+}
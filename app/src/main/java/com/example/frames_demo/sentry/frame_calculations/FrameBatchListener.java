@@ -0,0 +1,15 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import org.jetbrains.annotations.NotNull;
+
+public interface FrameBatchListener {
+    /**
+     * Called with the frames collected since the previous batch, once the batch is full, its
+     * timeout elapsed or the collection of the listener is stopped. Called from the thread frames
+     * are collected on, or from the thread which stopped tracking the last window, as the frame
+     * thread quits then.
+     *
+     * @param frameBatch the collected frames, only valid until this method returns
+     */
+    void onFrameBatch(final @NotNull FrameBatch frameBatch);
+}
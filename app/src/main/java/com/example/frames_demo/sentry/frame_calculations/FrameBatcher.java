@@ -0,0 +1,105 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Groups collected frames into a {@link FrameBatch}, which is delivered once it is full or its
+ * first frame waited for the timeout.
+ *
+ * <p>Frames are added from the thread frames are collected on, whose {@link Scheduler} runs the
+ * timeout. That thread is recreated once all of its consumers left and came back, dropping the
+ * timeout it had scheduled, so whether a timeout is pending is tracked with a flag rather than
+ * inferred from the batch, and scheduled again on the new thread.
+ */
+final class FrameBatcher {
+
+    /**
+     * Runs the timeout of a batch on the thread frames are collected on, a Handler of its looper.
+     */
+    interface Scheduler {
+        /**
+         * @return false if the runnable can't be run, e.g. as the thread is quitting
+         */
+        boolean postDelayed(@NotNull Runnable runnable, long delayMillis);
+
+        void removeCallbacks(@NotNull Runnable runnable);
+    }
+
+    private final @NotNull FrameBatch frameBatch;
+    private final long timeoutMillis;
+    private final @NotNull FrameBatchListener listener;
+    private final @NotNull Runnable timeoutRunnable = () -> flush(null);
+    // the scheduler the timeout is pending on
+    private @Nullable Scheduler scheduler;
+    private boolean isTimeoutPending;
+
+    /**
+     * @param listener receives every batch, dispatching it to the batch listeners
+     */
+    FrameBatcher(
+            final int batchSize,
+            final long timeoutMillis,
+            final @NotNull FrameBatchListener listener) {
+        this.frameBatch = new FrameBatch(batchSize);
+        this.timeoutMillis = timeoutMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a frame to the batch, delivering it if it's full.
+     *
+     * @param scheduler the scheduler of the calling thread
+     */
+    synchronized void add(
+            final @NotNull Scheduler scheduler,
+            final long frameStartNanos,
+            final long frameEndNanos,
+            final long durationNanos,
+            final long delayNanos,
+            final boolean isSlow,
+            final boolean isFrozen,
+            final float refreshRate) {
+        if (this.scheduler != scheduler) {
+            // the timeout scheduled on a previous thread is lost with it
+            this.scheduler = scheduler;
+            isTimeoutPending = false;
+        }
+        frameBatch.add(
+                frameStartNanos,
+                frameEndNanos,
+                durationNanos,
+                delayNanos,
+                isSlow,
+                isFrozen,
+                refreshRate);
+        if (frameBatch.isFull()) {
+            flush(null);
+        } else if (!isTimeoutPending) {
+            isTimeoutPending = scheduler.postDelayed(timeoutRunnable, timeoutMillis);
+        }
+    }
+
+    /**
+     * Delivers the pending frames to the listener, and to the given one which has just been
+     * removed.
+     */
+    synchronized void flush(final @Nullable FrameBatchListener removedListener) {
+        if (isTimeoutPending && scheduler != null) {
+            scheduler.removeCallbacks(timeoutRunnable);
+        }
+        isTimeoutPending = false;
+        if (frameBatch.getSize() == 0) {
+            return;
+        }
+        listener.onFrameBatch(frameBatch);
+        if (removedListener != null) {
+            removedListener.onFrameBatch(frameBatch);
+        }
+        frameBatch.clear();
+    }
+
+    synchronized boolean isEmpty() {
+        return frameBatch.getSize() == 0;
+    }
+}
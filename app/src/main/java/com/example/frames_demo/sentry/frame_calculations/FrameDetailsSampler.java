@@ -0,0 +1,102 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+/**
+ * Bounds the frames kept in the frames list of a span to the ones with the largest delay, while
+ * the totals of the span are still added up from all of its frames.
+ *
+ * <p>Frames are sampled in two passes over the same range of the frame history: the first one
+ * {@link #offer offers} the delay of every frame, keeping the largest ones in a min-heap of a fixed
+ * size, the second one {@link #keep keeps} the frames whose delay made it into the heap, in their
+ * original order.
+ */
+final class FrameDetailsSampler {
+    private final long[] heap;
+    private int size;
+    // set once all delays were offered
+    private long thresholdNanos;
+    private int thresholdFramesLeft;
+
+    /**
+     * @param maxFrames the number of frames to keep, at least 1
+     */
+    FrameDetailsSampler(final int maxFrames) {
+        this.heap = new long[maxFrames];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Offers the delay of a frame during the first pass.
+     */
+    void offer(final long delayNanos) {
+        if (size < heap.length) {
+            heap[size] = delayNanos;
+            siftUp(size++);
+        } else if (delayNanos > heap[0]) {
+            heap[0] = delayNanos;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Ends the first pass, the heap then holds the largest delays.
+     */
+    void select() {
+        thresholdNanos = size > 0 ? heap[0] : 0;
+        // frames with the smallest kept delay are kept first come first served, as many as there
+        // are in the heap
+        thresholdFramesLeft = 0;
+        for (int i = 0; i < size; i++) {
+            if (heap[i] == thresholdNanos) {
+                thresholdFramesLeft++;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the frame with the given delay is kept during the second pass, whose frames
+     * have to be the ones offered during the first pass.
+     */
+    boolean keep(final long delayNanos) {
+        if (delayNanos > thresholdNanos) {
+            return true;
+        }
+        if (delayNanos == thresholdNanos && thresholdFramesLeft > 0) {
+            thresholdFramesLeft--;
+            return true;
+        }
+        return false;
+    }
+
+    private void siftUp(int index) {
+        final long value = heap[index];
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (heap[parent] <= value) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = value;
+    }
+
+    private void siftDown(int index) {
+        final long value = heap[index];
+        final int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (value <= heap[child]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = value;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import com.example.frames_demo.sentry.span.Span;
+
+import org.jetbrains.annotations.NotNull;
+
+public interface FrameMetricsCaptureListener {
+    /**
+     * Called once the frame metrics of a transaction and of its finished descendants are set as
+     * their measurements. Always called from the frame source thread.
+     *
+     * @param transaction the captured transaction
+     */
+    void onFrameMetricsCaptured(final @NotNull Span transaction);
+}
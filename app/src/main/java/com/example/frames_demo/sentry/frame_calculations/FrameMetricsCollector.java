@@ -1,165 +1,664 @@
 package com.example.frames_demo.sentry.frame_calculations;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
-import android.view.Choreographer;
-import android.view.FrameMetrics;
 import android.view.Window;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.RequiresApi;
+
+import com.example.frames_demo.common.frame_calculations.FrameSample;
+import com.example.frames_demo.common.frame_calculations.FrameSource;
+import com.example.frames_demo.common.frame_calculations.RefreshRateTracker;
+import com.example.frames_demo.common.frame_calculations.RollingFrameStats;
+import com.example.frames_demo.sentry.span.ISpan;
+import com.example.frames_demo.sentry.span.Span;
+import com.example.frames_demo.sentry.span.SpanMeasurements;
+import com.example.frames_demo.sentry.utils.Constants;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.ref.WeakReference;
-import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 
 public class FrameMetricsCollector implements Application.ActivityLifecycleCallbacks {
+    private static volatile @Nullable FrameMetricsCollector instance;
+
+    private @Nullable Application application;
+    private boolean isInitialized = false;
     private final @NotNull Map<String, FrameMetricsCollectorListener> listenerMap =
             new ConcurrentHashMap<>();
-    private @Nullable Handler handler;
     private final @NotNull Set<Window> trackedWindows = new CopyOnWriteArraySet<>();
     private @Nullable WeakReference<Window> currentWindow;
-    private @Nullable Window.OnFrameMetricsAvailableListener frameMetricsAvailableListener;
+    private final @NotNull Map<String, FrameBatchListener> batchListenerMap =
+            new ConcurrentHashMap<>();
+    private volatile @Nullable FrameSource.Consumer frameConsumer;
+
+    // about one second of frames at 60fps
+    private static final int DEFAULT_FRAME_BATCH_SIZE = 60;
+    private static final long DEFAULT_FRAME_BATCH_TIMEOUT_MILLIS = 1000;
+    // written from the thread frames are collected on
+    private final @NotNull FrameBatcher frameBatcher;
+    // bound to the thread frames are collected on, created with the first batched frame
+    private volatile @Nullable HandlerScheduler frameBatchScheduler;
+
+    // 30s at 120fps = 3600 frames
+    // this is the fixed capacity of the frame history, once it is reached the oldest frames
+    // are overwritten, ensuring that the history does not grow while the app is running
+    private static final int MAX_FRAMES_COUNT = 3600;
+    private final @NotNull AppFrameBuffer frameHistory = new AppFrameBuffer(MAX_FRAMES_COUNT);
+    // the marks of the spans whose totals stay exact once their frames are overwritten
+    private final @NotNull Map<ISpan, AppFrameBuffer.TotalsMark> exactTotalsMarks =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private volatile int maxSpanFrames = MAX_FRAMES_COUNT;
+    private volatile long lastKnownFrameDurationNanos = 16_666_666L;
+    private volatile boolean isFrameHistoryEnabled = false;
+    private final @NotNull RollingFrameStats rollingFrameStats = new RollingFrameStats();
 
     private static final long oneSecondInNanos = TimeUnit.SECONDS.toNanos(1);
     private static final long frozenFrameThresholdNanos = TimeUnit.MILLISECONDS.toNanos(700);
-    private @Nullable Choreographer choreographer;
-    private @Nullable Field choreographerLastFrameTimeField;
+    private volatile @Nullable VsyncTimeline vsyncTimeline;
     private long lastFrameStartNanos = 0;
     private long lastFrameEndNanos = 0;
 
-    @SuppressWarnings("deprecation")
-    @SuppressLint({"NewApi", "PrivateApi"})
-    public FrameMetricsCollector(final @NotNull Context context) {
+    /**
+     * Returns the process-wide collector. Creating it only registers the activity lifecycle
+     * callbacks, everything else is set up with the first collection.
+     */
+    public static @NotNull FrameMetricsCollector getInstance(final @NotNull Context context) {
+        FrameMetricsCollector collector = instance;
+        if (collector == null) {
+            synchronized (FrameMetricsCollector.class) {
+                collector = instance;
+                if (collector == null) {
+                    collector = new FrameMetricsCollector(
+                            context, DEFAULT_FRAME_BATCH_SIZE, DEFAULT_FRAME_BATCH_TIMEOUT_MILLIS);
+                    instance = collector;
+                }
+            }
+        }
+        return collector;
+    }
+
+    /**
+     * Creates a collector with its own frame batch policy. Prefer {@link #getInstance(Context)},
+     * every collector registers its own activity lifecycle callbacks.
+     *
+     * @param frameBatchSize          the maximum number of frames delivered to a
+     *                                {@link FrameBatchListener} at once
+     * @param frameBatchTimeoutMillis the maximum time a collected frame waits for its batch to be
+     *                                delivered
+     */
+    public FrameMetricsCollector(
+            final @NotNull Context context,
+            final int frameBatchSize,
+            final long frameBatchTimeoutMillis) {
+        this.frameBatcher = new FrameBatcher(
+                frameBatchSize,
+                frameBatchTimeoutMillis,
+                frameBatch -> {
+                    for (FrameBatchListener l : batchListenerMap.values()) {
+                        l.onFrameBatch(frameBatch);
+                    }
+                });
         final @NotNull Context appContext = context.getApplicationContext();
 
         // registerActivityLifecycleCallbacks is only available if Context is an AppContext
         if (!(appContext instanceof Application)) {
             return;
         }
-        // FrameMetrics api is only available since sdk version N
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            return;
-        }
-        HandlerThread handlerThread =
-                new HandlerThread("another thread");
-        handlerThread.start();
-        handler = new Handler(handlerThread.getLooper());
+        application = (Application) appContext;
 
         // We have to register the lifecycle callback, even if no profile is started, otherwise when we
         // start a profile, we wouldn't have the current activity and couldn't get the frameMetrics.
-        ((Application) appContext).registerActivityLifecycleCallbacks(this);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            application.registerActivityLifecycleCallbacks(this);
+        }
+    }
+
+    /**
+     * Sets up the frame sources on the first collection, so that an idle collector costs nothing.
+     */
+    private synchronized void initialize() {
+        if (isInitialized || application == null) {
+            return;
+        }
+        isInitialized = true;
+        final @NotNull RefreshRateTracker refreshRateTracker =
+                RefreshRateTracker.getInstance(application);
+
+        // FrameMetrics api is only available since sdk version N, before that the vsync timeline
+        // is the frame source: the time between two handled vsyncs is the duration of a frame
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            vsyncTimeline = new VsyncTimeline(
+                    (frameStartNanos, frameDurationNanos) -> recordFrame(
+                            frameStartNanos,
+                            frameDurationNanos,
+                            refreshRateTracker.getFrameBudgetNanos(),
+                            null));
+            return;
+        }
+        vsyncTimeline = new VsyncTimeline(null);
 
         // Most considerations regarding timestamps of frames are inspired from JankStats library:
         // https://cs.android.com/androidx/platform/frameworks/support/+/androidx-main:metrics/metrics-performance/src/main/java/androidx/metrics/performance/JankStatsApi24Impl.kt
 
-        // The Choreographer instance must be accessed on the main thread
-        new Handler(Looper.getMainLooper())
-                .post(
-                        () -> {
-                            try {
-                                choreographer = Choreographer.getInstance();
-                            } catch (Throwable e) {
-                                Log.v(
-                                        " FrameMetricsCollector",
-                                        "Error retrieving Choreographer instance. Slow and frozen frames will not be reported.", e);
-                            }
-                        });
-        // Let's get the last frame timestamp from the choreographer private field
-        try {
-            choreographerLastFrameTimeField = Choreographer.class.getDeclaredField("mLastFrameTimeNanos");
-            choreographerLastFrameTimeField.setAccessible(true);
-        } catch (NoSuchFieldException e) {
-            Log.v(
-                    " FrameMetricsCollector", "Unable to get the frame timestamp from the choreographer: ", e);
-        }
-
-        frameMetricsAvailableListener =
-                (window, frameMetrics, dropCountSinceLastInvocation) -> {
-                    final long now = System.nanoTime();
-                    final float refreshRate =
-                            Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
-                                    ? window.getContext().getDisplay().getRefreshRate()
-                                    : window.getWindowManager().getDefaultDisplay().getRefreshRate();
-                    Log.d("FrameMetricsCollector", "refreshRate: " + refreshRate);
-
-                    final long expectedFrameDuration = (long) (oneSecondInNanos / refreshRate);
-                    Log.d("FrameMetricsCollector", "expectedFrameDuration: " + oneSecondInNanos);
-
-                    Log.d("FrameMetricsCollector", "expectedFrameDuration: " + expectedFrameDuration);
-
-                    final long cpuDuration = getFrameCpuDuration(frameMetrics);
-
-                    // if totalDurationNanos is smaller than expectedFrameTimeNanos,
-                    // it means that the frame was drawn within it's time budget, thus 0 delay
-                    final long delayNanos = Math.max(0, cpuDuration - expectedFrameDuration);
-
-                    long startTime = getFrameStartTimestamp(frameMetrics);
-                    // If we couldn't get the timestamp through reflection, we use current time
+        // frames are delivered by the FrameSource of the window, which is shared with the other
+        // engines recording the same window
+        frameConsumer =
+                frameSample -> {
+                    final long cpuDuration = frameSample.getUiDurationNanos();
+
+                    long startTime = getFrameStartTimestamp(frameSample);
+                    // If we couldn't get the timestamp from the vsync timeline, we use current time
                     if (startTime < 0) {
-                        startTime = now - cpuDuration;
-                    }
-                    // Let's "adjust" the start time of a frame to be after the end of the previous frame
-                    startTime = Math.max(startTime, lastFrameEndNanos);
-                    // Let's avoid emitting duplicates (start time equals to last start time)
-                    if (startTime == lastFrameStartNanos) {
-                        return;
-                    }
-                    lastFrameStartNanos = startTime;
-                    lastFrameEndNanos = startTime + cpuDuration;
-
-                    // Most frames take just a few nanoseconds longer than the optimal calculated
-                    // duration.
-                    // Therefore we subtract one, because otherwise almost all frames would be slow.
-                    final boolean isSlow =
-                            isSlow(cpuDuration, (long) ((float) oneSecondInNanos / (refreshRate - 1.0f)));
-
-
-                    final boolean isFrozen = isSlow && isFrozen(cpuDuration);
-
-                    for (FrameMetricsCollectorListener l : listenerMap.values()) {
-                        l.onFrameMetricCollected(
-                                startTime,
-                                lastFrameEndNanos,
-                                cpuDuration,
-                                delayNanos,
-                                isSlow,
-                                isFrozen,
-                                refreshRate);
+                        startTime = frameSample.getReceivedAtNanos() - cpuDuration;
                     }
+                    // the budget of this very frame, so that frames rendered while the display
+                    // switches between refresh rates are classified correctly
+                    recordFrame(
+                            startTime, cpuDuration, frameSample.getFrameBudgetNanos(), frameSample);
                 };
     }
 
+    /**
+     * Classifies a frame, records it in the frame history and notifies the listeners. Always called
+     * from the same thread: the frame source thread, or the main thread before Android N.
+     *
+     * @param frameSample the stages of the frame, or null if they are unknown
+     */
+    private void recordFrame(
+            long startTime,
+            final long cpuDuration,
+            final long expectedFrameDuration,
+            final @Nullable FrameSample frameSample) {
+        final float refreshRate = RefreshRateTracker.toRefreshRate(expectedFrameDuration);
+
+        // if totalDurationNanos is smaller than expectedFrameTimeNanos,
+        // it means that the frame was drawn within it's time budget, thus 0 delay
+        final long delayNanos = Math.max(0, cpuDuration - expectedFrameDuration);
+
+        // Let's "adjust" the start time of a frame to be after the end of the previous frame
+        startTime = Math.max(startTime, lastFrameEndNanos);
+        // Let's avoid emitting duplicates (start time equals to last start time)
+        if (startTime == lastFrameStartNanos) {
+            return;
+        }
+        lastFrameStartNanos = startTime;
+        lastFrameEndNanos = startTime + cpuDuration;
+
+        // Most frames take just a few nanoseconds longer than the optimal calculated
+        // duration.
+        // Therefore we subtract one, because otherwise almost all frames would be slow.
+        final boolean isSlow =
+                isSlow(cpuDuration, (long) ((float) oneSecondInNanos / (refreshRate - 1.0f)));
+
+
+        final boolean isFrozen = isSlow && isFrozen(cpuDuration);
+
+        // a frame on time on the main thread can still miss its deadline because of the render
+        // thread or the gpu
+        final long renderDelayNanos =
+                !isSlow && frameSample != null ? frameSample.getOverrunNanos() : 0;
+
+        lastKnownFrameDurationNanos = expectedFrameDuration;
+        rollingFrameStats.record(startTime, delayNanos, isSlow, isFrozen);
+        if (isSlow || renderDelayNanos > 0) {
+            frameHistory.add(
+                    startTime,
+                    lastFrameEndNanos,
+                    cpuDuration,
+                    delayNanos,
+                    isSlow,
+                    isFrozen,
+                    renderDelayNanos,
+                    expectedFrameDuration,
+                    frameSample);
+        }
+
+        for (FrameMetricsCollectorListener l : listenerMap.values()) {
+            l.onFrameMetricCollected(
+                    startTime,
+                    lastFrameEndNanos,
+                    cpuDuration,
+                    delayNanos,
+                    isSlow,
+                    isFrozen,
+                    refreshRate);
+        }
+        if (!batchListenerMap.isEmpty()) {
+            addToFrameBatch(
+                    startTime,
+                    lastFrameEndNanos,
+                    cpuDuration,
+                    delayNanos,
+                    isSlow,
+                    isFrozen,
+                    refreshRate);
+        }
+    }
+
+    private void addToFrameBatch(
+            final long frameStartNanos,
+            final long frameEndNanos,
+            final long durationNanos,
+            final long delayNanos,
+            final boolean isSlow,
+            final boolean isFrozen,
+            final float refreshRate) {
+        HandlerScheduler scheduler = frameBatchScheduler;
+        // the frame source thread is recreated once all of its consumers left and came back
+        if (scheduler == null || scheduler.handler.getLooper() != Looper.myLooper()) {
+            scheduler = new HandlerScheduler(new Handler(Looper.myLooper()));
+            frameBatchScheduler = scheduler;
+        }
+        frameBatcher.add(
+                scheduler,
+                frameStartNanos,
+                frameEndNanos,
+                durationNanos,
+                delayNanos,
+                isSlow,
+                isFrozen,
+                refreshRate);
+    }
+
+    private static final class HandlerScheduler implements FrameBatcher.Scheduler {
+        final @NotNull Handler handler;
+
+        HandlerScheduler(final @NotNull Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean postDelayed(final @NotNull Runnable runnable, final long delayMillis) {
+            return handler.postDelayed(runnable, delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(final @NotNull Runnable runnable) {
+            handler.removeCallbacks(runnable);
+        }
+    }
 
     public @Nullable String startCollection(final @NotNull FrameMetricsCollectorListener listener) {
         final String uid = String.valueOf(UUID.randomUUID());
+        initialize();
         listenerMap.put(uid, listener);
         trackCurrentWindow();
+        updateVsyncTimeline();
+        return uid;
+    }
+
+    /**
+     * Starts collecting frames for a listener which receives them in batches rather than one
+     * by one, see {@link #FrameMetricsCollector(Context, int, long)}.
+     *
+     * @return the id to stop the collection with {@link #stopCollection(String)}
+     */
+    public @Nullable String startBatchCollection(final @NotNull FrameBatchListener listener) {
+        final String uid = String.valueOf(UUID.randomUUID());
+        initialize();
+        batchListenerMap.put(uid, listener);
+        trackCurrentWindow();
+        updateVsyncTimeline();
         return uid;
     }
 
     public void stopCollection(String listenerId) {
         listenerMap.remove(listenerId);
+        final @Nullable FrameBatchListener batchListener = batchListenerMap.remove(listenerId);
         Window window = currentWindow != null ? currentWindow.get() : null;
-        if (window != null && listenerMap.isEmpty()) {
+        if (window != null && !isCollecting()) {
             stopTrackingWindow(window);
         }
+        if (batchListener != null) {
+            flushFrameBatch(batchListener);
+        }
+        updateVsyncTimeline();
+    }
+
+    /**
+     * Delivers the batched frames to the batch listeners, and to the given one which has just been
+     * removed. They are delivered from the thread frames are collected on while a window is
+     * tracked, and right away once none is: the frame source thread then quits, dropping the
+     * messages still posted to it.
+     */
+    private void flushFrameBatch(final @Nullable FrameBatchListener removedListener) {
+        if (frameBatcher.isEmpty()) {
+            return;
+        }
+        final @Nullable HandlerScheduler scheduler = frameBatchScheduler;
+        if (!trackedWindows.isEmpty()
+                && scheduler != null
+                && scheduler.handler.post(() -> frameBatcher.flush(removedListener))) {
+            return;
+        }
+        frameBatcher.flush(removedListener);
+    }
+
+    /**
+     * Keeps the current window tracked even without listeners, so that the frame history covers
+     * interactions whose start is only known after the fact (e.g. app start or a tap handled some
+     * time ago), and {@link #captureFrameMetrics(ISpan)} can be used for them.
+     *
+     * @param enabled true to record frames continuously, false to record only while listeners
+     *                are registered
+     */
+    public void setFrameHistoryEnabled(final boolean enabled) {
+        isFrameHistoryEnabled = enabled;
+        if (enabled) {
+            initialize();
+            trackCurrentWindow();
+        } else {
+            Window window = currentWindow != null ? currentWindow.get() : null;
+            if (window != null && !isCollecting()) {
+                stopTrackingWindow(window);
+            }
+        }
+        updateVsyncTimeline();
+    }
+
+    /**
+     * The vsync timeline posts a frame callback for every vsync, so it only runs while frames are
+     * collected.
+     */
+    private void updateVsyncTimeline() {
+        final @Nullable VsyncTimeline vsyncTimeline = this.vsyncTimeline;
+        if (vsyncTimeline == null) {
+            return;
+        }
+        if (isCollecting()) {
+            vsyncTimeline.start();
+        } else {
+            vsyncTimeline.stop();
+        }
+    }
+
+    private boolean isCollecting() {
+        return isFrameHistoryEnabled || !listenerMap.isEmpty() || !batchListenerMap.isEmpty();
+    }
+
+    /**
+     * Keeps the frame totals of the given span exact even when it lasts longer than the frame
+     * history, whose oldest frames are overwritten: the running totals right before its first
+     * frame are kept aside. Without it, the totals of such a span only cover the frames still in
+     * the history. The span has to be captured while its last frames are still in the history.
+     *
+     * <p>The first frame of the span is then counted whole once overwritten, even if it started
+     * before the span.
+     *
+     * @param span a running span, whose start is not older than the frame history
+     */
+    public void trackExactTotals(final @NotNull ISpan span) {
+        exactTotalsMarks.put(span, frameHistory.mark(span.getStartDate()));
+    }
+
+    /**
+     * Bounds the frames kept in the frames list of a span, to cap the memory of long spans. The
+     * frames with the largest delay are kept, the totals of the span still count all its frames.
+     *
+     * @param maxSpanFrames the maximum number of frames within the span to keep, the frames
+     *                      crossing its bounds are always kept
+     */
+    public void setMaxSpanFrames(final int maxSpanFrames) {
+        this.maxSpanFrames = Math.max(1, maxSpanFrames);
+    }
+
+    /**
+     * Calculates the frame metrics of the given span from the frame history and sets them as span
+     * measurements, and its frames as span data. The span doesn't need to have been active while
+     * its frames were rendered, as long as its start is still covered by the history.
+     *
+     * @param span a finished span
+     */
+    public void captureFrameMetrics(final @NotNull ISpan span) {
+        captureFrameMetrics(span, true, getLastKnownFrameStartTimeNanos());
+    }
+
+    /**
+     * Captures the frame metrics of a transaction and of all its finished descendants. Only the
+     * transaction walks its frames, to keep their details; the totals of the children come from the
+     * prefix sums of the shared frame history, so a transaction with hundreds of small spans
+     * doesn't iterate the frames of each of them.
+     *
+     * @param transaction a finished span
+     */
+    public void captureTransactionFrameMetrics(final @NotNull Span transaction) {
+        captureTransactionFrameMetrics(transaction, getLastKnownFrameStartTimeNanos());
+    }
+
+    /**
+     * Captures the frame metrics of a transaction like {@link #captureTransactionFrameMetrics(Span)},
+     * but on the frame source thread rather than the calling one, so that finishing a long
+     * transaction doesn't cost the main thread its frames. The thread is kept alive until the
+     * capture has run, and runs it after the frames it already received. Only the last vsync
+     * handled on the main thread is read right away, as it tells whether a frame was still pending
+     * when the transaction finished.
+     *
+     * <p>Call it before stopping the collection of the transaction: once its listener was the last
+     * one, the frame source thread quits, and a capture posted afterwards would run on a new thread
+     * while the old one still writes its last frames.
+     *
+     * @param transaction a finished span, which must not be modified until the listener is called
+     * @param listener    notified on the frame source thread once the measurements are set
+     */
+    public void captureTransactionFrameMetricsAsync(
+            final @NotNull Span transaction,
+            final @Nullable FrameMetricsCaptureListener listener) {
+        final long nextScheduledFrameNanos = getLastKnownFrameStartTimeNanos();
+        FrameSource.runOnFrameThread(() -> {
+            captureTransactionFrameMetrics(transaction, nextScheduledFrameNanos);
+            if (listener != null) {
+                listener.onFrameMetricsCaptured(transaction);
+            }
+        });
+    }
+
+    private void captureTransactionFrameMetrics(
+            final @NotNull Span transaction, final long nextScheduledFrameNanos) {
+        captureFrameMetrics(transaction, true, nextScheduledFrameNanos);
+        final @NotNull ArrayDeque<Span> pending = new ArrayDeque<>(transaction.getChildren());
+        while (!pending.isEmpty()) {
+            final @NotNull Span span = pending.poll();
+            if (span.isFinished()) {
+                captureFrameMetrics(span, false, nextScheduledFrameNanos);
+            }
+            pending.addAll(span.getChildren());
+        }
+    }
+
+    /**
+     * @param withFrames              true to keep the details of each frame of the span, false
+     *                                for its totals only
+     * @param nextScheduledFrameNanos the last vsync handled on the main thread when the span was
+     *                                finished, or -1 if it's unknown
+     */
+    private void captureFrameMetrics(
+            final @NotNull ISpan span,
+            final boolean withFrames,
+            final long nextScheduledFrameNanos) {
+        final long spanFinishDate = span.getFinishDate();
+        final long spanStartNanos = span.getStartDate();
+        final long spanDurationNanos = spanFinishDate - spanStartNanos;
+        if (spanDurationNanos <= 0) {
+            return;
+        }
+
+        final @NotNull AppFramesMetrics framesMetrics = new AppFramesMetrics(withFrames);
+        final @Nullable AppFrameBuffer.TotalsMark totalsMark = exactTotalsMarks.remove(span);
+        final int maxFrames = maxSpanFrames;
+        // only created for spans with more frames than kept
+        @Nullable FrameDetailsSampler sampler = null;
+        // the span frames copy the stage durations, so one array is reused for all frames
+        final @NotNull long[] stageDurationNanos = new long[FrameSample.STAGE_COUNT];
+
+        long frameDurationNanos;
+
+        // the handler thread keeps writing while we read, so in the unlikely case it wrapped
+        // around and overwrote frames we were reading, we simply read them again
+        long firstIndex;
+        do {
+            framesMetrics.clear();
+            frameDurationNanos = lastKnownFrameDurationNanos;
+
+            final long startIndex = frameHistory.getStartIndex();
+            final long endIndex = frameHistory.getEndIndex();
+            // determine the relevant range in the frames buffer: all frames ending after the span
+            // start and starting before the span end
+            firstIndex = frameHistory.indexOfFirstEndingAtOrAfter(
+                    spanStartNanos, startIndex, endIndex);
+            final long lastIndex = frameHistory.indexOfFirstStartingAfter(
+                    spanFinishDate, firstIndex, endIndex);
+            if (totalsMark != null
+                    && totalsMark.getIndex() >= 0
+                    && totalsMark.getIndex() < startIndex
+                    && startIndex < lastIndex) {
+                // the first frames of the span were overwritten, their totals come from the mark
+                frameHistory.addTotalsSince(totalsMark, startIndex, framesMetrics);
+            }
+            if (firstIndex == lastIndex) {
+                continue;
+            }
+            frameDurationNanos = frameHistory.getExpectedDurationNanos(lastIndex - 1);
+
+            // frames are ordered and don't overlap, so only the first and the last frame
+            // of the range can be partially outside of the span
+            long containedStartIndex = firstIndex;
+            long containedEndIndex = lastIndex;
+            if (!frameHistory.isContained(firstIndex, spanStartNanos, spanFinishDate)) {
+                frameHistory.addFrameIntersection(
+                        firstIndex, spanStartNanos, spanFinishDate, framesMetrics);
+                containedStartIndex++;
+            }
+            final boolean isLastFramePartial = containedStartIndex < containedEndIndex
+                    && !frameHistory.isContained(lastIndex - 1, spanStartNanos, spanFinishDate);
+            if (isLastFramePartial) {
+                containedEndIndex--;
+            }
+
+            // frames contained within the span are added 1:1 to the span metrics, their totals
+            // come from the prefix sums of the buffer
+            frameHistory.addTotals(containedStartIndex, containedEndIndex, framesMetrics);
+            final boolean isSampled =
+                    withFrames && containedEndIndex - containedStartIndex > maxFrames;
+            if (isSampled) {
+                if (sampler == null) {
+                    sampler = new FrameDetailsSampler(maxFrames);
+                }
+                sampler.clear();
+                for (long index = containedStartIndex; index < containedEndIndex; index++) {
+                    sampler.offer(getJankDelayNanos(index));
+                }
+                sampler.select();
+            }
+            for (long index = containedStartIndex;
+                    withFrames && index < containedEndIndex;
+                    index++) {
+                if (isSampled && !sampler.keep(getJankDelayNanos(index))) {
+                    continue;
+                }
+                final int dominantStage = frameHistory.getDominantStage(index);
+                framesMetrics.addFrameDetails(
+                        frameHistory.getStartNanos(index),
+                        frameHistory.getDurationNanos(index),
+                        frameHistory.getDelayNanos(index),
+                        frameHistory.isSlow(index),
+                        frameHistory.isFrozen(index),
+                        frameHistory.getRenderDelayNanos(index),
+                        dominantStage,
+                        dominantStage != FrameSample.STAGE_NONE
+                                ? getStageDurations(index, stageDurationNanos)
+                                : null
+                );
+            }
+
+            if (isLastFramePartial) {
+                frameHistory.addFrameIntersection(
+                        lastIndex - 1, spanStartNanos, spanFinishDate, framesMetrics);
+            }
+        } while (!frameHistory.isAvailable(firstIndex));
+
+        int totalFrameCount =
+                framesMetrics.getSlowFrozenFrameCount() + framesMetrics.getRenderJankFrameCount();
+
+        long durationForInterpolate = spanDurationNanos;
+        // nextScheduledFrameNanos might be -1 if no frames have been scheduled for drawing yet
+        // e.g. can happen during early app start
+        if (nextScheduledFrameNanos != -1) {
+            // span ends before frame
+            var pendingFrames = addPendingFrameDelay(
+                    framesMetrics,
+                    frameDurationNanos,
+                    spanFinishDate,
+                    nextScheduledFrameNanos
+            );
+            totalFrameCount += pendingFrames;
+            if (pendingFrames > 0) {
+            durationForInterpolate -= Math.max(spanFinishDate - nextScheduledFrameNanos, 0);
+            }
+        }
+        totalFrameCount += interpolateFrameCount(
+                framesMetrics,
+                frameDurationNanos,
+                durationForInterpolate
+        );
+        final long frameDelayNanos =
+                framesMetrics.getSlowFrameDelayNanos() + framesMetrics.getFrozenFrameDelayNanos();
+        framesMetrics.setTotalFrameCount(totalFrameCount);
+
+        if (withFrames) {
+            span.setData(Constants.FRAMES_LIST, framesMetrics.getFrames());
+        }
+        span.setMeasurement(SpanMeasurements.FRAMES_TOTAL, framesMetrics.getTotalFrameCount());
+        span.setMeasurement(SpanMeasurements.FRAMES_SLOW, framesMetrics.getSlowFrameCount());
+        span.setMeasurement(SpanMeasurements.FRAMES_FROZEN, framesMetrics.getFrozenFrameCount());
+        span.setMeasurement(SpanMeasurements.FRAMES_DELAY_NANOS, frameDelayNanos);
+        span.setMeasurement(
+                SpanMeasurements.FRAMES_RENDER_JANK, framesMetrics.getRenderJankFrameCount());
+        span.setMeasurement(
+                SpanMeasurements.FRAMES_RENDER_JANK_DELAY_NANOS,
+                framesMetrics.getRenderJankDelayNanos());
+        for (int stage = 0; stage < FrameSample.STAGE_COUNT; stage++) {
+            final long stageDelayNanos = framesMetrics.getStageDelayNanos(stage);
+            if (stageDelayNanos > 0) {
+                span.setMeasurement(SpanMeasurements.stageDelay(stage), stageDelayNanos);
+            }
+        }
+        Log.d("Sentry", "Total frames: " + totalFrameCount
+                + ", slow: " + framesMetrics.getSlowFrameCount()
+                + ", frozen: " + framesMetrics.getFrozenFrameCount()
+                + ", render jank: " + framesMetrics.getRenderJankFrameCount());
+    }
+
+    /**
+     * Returns the delay of a frame of the history, on the main thread for slow frames or beyond
+     * the deadline for render jank, as a frame is one or the other.
+     */
+    private long getJankDelayNanos(final long index) {
+        return frameHistory.getDelayNanos(index) + frameHistory.getRenderDelayNanos(index);
+    }
+
+    private @NotNull long[] getStageDurations(
+            final long index, final @NotNull long[] stageDurationNanos) {
+        for (int stage = 0; stage < FrameSample.STAGE_COUNT; stage++) {
+            stageDurationNanos[stage] = frameHistory.getStageDurationNanos(index, stage);
+        }
+        return stageDurationNanos;
     }
 
     private void trackCurrentWindow() {
@@ -168,12 +667,11 @@ public class FrameMetricsCollector implements Application.ActivityLifecycleCallb
             return;
         }
 
-        if (!trackedWindows.contains(window) && !listenerMap.isEmpty()) {
+        if (!trackedWindows.contains(window) && isCollecting()) {
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && handler != null) {
+            if (FrameSource.isSupported() && frameConsumer != null) {
                 trackedWindows.add(window);
-                assert frameMetricsAvailableListener != null;
-                addOnFrameMetricsAvailableListener(window, frameMetricsAvailableListener, handler);
+                FrameSource.forWindow(window).addConsumer(frameConsumer);
             }
         }
     }
@@ -188,61 +686,33 @@ public class FrameMetricsCollector implements Application.ActivityLifecycleCallb
     }
 
     /**
-     * Return the internal timestamp in the choreographer of the last frame start timestamp through
-     * reflection. On Android O the value is read from the frameMetrics itself.
+     * Return the start timestamp of the frame. On Android O the value is read from the frameMetrics
+     * itself, before that it is the last vsync handled before the estimated start of the frame.
      */
-    @SuppressLint("NewApi")
-    private long getFrameStartTimestamp(final @NotNull FrameMetrics frameMetrics) {
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            return frameMetrics.getMetric(FrameMetrics.INTENDED_VSYNC_TIMESTAMP);
+    private long getFrameStartTimestamp(final @NotNull FrameSample frameSample) {
+        final long intendedVsyncNanos = frameSample.getIntendedVsyncNanos();
+        if (intendedVsyncNanos >= 0) {
+            return intendedVsyncNanos;
         }
 
-        return getLastKnownFrameStartTimeNanos();
+        return vsyncTimeline != null
+                ? vsyncTimeline.getVsyncAtOrBefore(frameSample.getEstimatedStartNanos())
+                : -1;
     }
 
-    public long getLastKnownFrameStartTimeNanos() {
-        // Let's read the choreographer private field to get start timestamp of the frame, which
-        // uses System.nanoTime() under the hood
-        if (choreographer != null && choreographerLastFrameTimeField != null) {
-            try {
-                Long choreographerFrameStartTime =
-                        (Long) choreographerLastFrameTimeField.get(choreographer);
-                if (choreographerFrameStartTime != null) {
-                    return choreographerFrameStartTime;
-                }
-            } catch (IllegalAccessException ignored) {
-            }
-        }
-        return -1;
+    /**
+     * Returns the frames of the last seconds, recorded while any collection is running.
+     */
+    public @NotNull RollingFrameStats getRollingFrameStats() {
+        return rollingFrameStats;
     }
 
     /**
-     * Return time spent on the main thread (cpu) for frame creation. It doesn't consider time spent
-     * on the render thread (gpu).
+     * Returns the timestamp of the last vsync handled on the main thread, which uses
+     * System.nanoTime() under the hood, or -1 if it's unknown.
      */
-    @RequiresApi(api = Build.VERSION_CODES.N)
-    private long getFrameCpuDuration(final @NotNull FrameMetrics frameMetrics) {
-        Log.d("FrameMetricsCollector", "total = "+frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION)/10e6);
-        var f = frameMetrics.getMetric(FrameMetrics.UNKNOWN_DELAY_DURATION)
-                + frameMetrics.getMetric(FrameMetrics.INPUT_HANDLING_DURATION)
-                + frameMetrics.getMetric(FrameMetrics.ANIMATION_DURATION)
-                + frameMetrics.getMetric(FrameMetrics.LAYOUT_MEASURE_DURATION)
-                + frameMetrics.getMetric(FrameMetrics.DRAW_DURATION)
-                + frameMetrics.getMetric(FrameMetrics.SYNC_DURATION);
-        Log.d("FrameMetricsCollector","f= "+f/10e6);
-       return f;
-
-
-
-        // Inspired by JankStats
-        // https://cs.android.com/androidx/platform/frameworks/support/+/androidx-main:metrics/metrics-performance/src/main/java/androidx/metrics/performance/JankStatsApi24Impl.kt;l=74-79;drc=1de6215c6bd9e887e3d94556e9ac55cfb7b8c797
-//        return frameMetrics.getMetric(FrameMetrics.UNKNOWN_DELAY_DURATION)
-//                + frameMetrics.getMetric(FrameMetrics.INPUT_HANDLING_DURATION)
-//                + frameMetrics.getMetric(FrameMetrics.ANIMATION_DURATION)
-//                + frameMetrics.getMetric(FrameMetrics.LAYOUT_MEASURE_DURATION)
-//                + frameMetrics.getMetric(FrameMetrics.DRAW_DURATION)
-//                + frameMetrics.getMetric(FrameMetrics.SYNC_DURATION);
+    public long getLastKnownFrameStartTimeNanos() {
+        return vsyncTimeline != null ? vsyncTimeline.getLastVsyncNanos() : -1;
     }
 
     @Override
@@ -270,6 +740,7 @@ public class FrameMetricsCollector implements Application.ActivityLifecycleCallb
     @Override
     public void onActivityStopped(@NonNull Activity activity) {
         stopTrackingWindow(activity.getWindow());
+        flushFrameBatch(null);
         if (currentWindow != null && currentWindow.get() == activity.getWindow()) {
             currentWindow = null;
         }
@@ -293,34 +764,54 @@ public class FrameMetricsCollector implements Application.ActivityLifecycleCallb
         trackCurrentWindow();
     }
 
-    @SuppressLint("NewApi")
     private void stopTrackingWindow(final @NotNull Window window) {
         if (trackedWindows.contains(window)) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                try {
-                    removeOnFrameMetricsAvailableListener(
-                            window, frameMetricsAvailableListener);
-                } catch (Exception e) {
-                    Log.v(
-                            " FrameMetricsCollector", "Failed to remove frameMetricsAvailableListener", e);
-                }
+            if (frameConsumer != null) {
+                FrameSource.forWindow(window).removeConsumer(frameConsumer);
             }
             trackedWindows.remove(window);
         }
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.N)
-    private void addOnFrameMetricsAvailableListener(
-            final @NotNull Window window,
-            final @NotNull Window.OnFrameMetricsAvailableListener frameMetricsAvailableListener,
-            final @Nullable Handler handler) {
-        window.addOnFrameMetricsAvailableListener(frameMetricsAvailableListener, handler);
+    private static int interpolateFrameCount(
+            final @NotNull AppFramesMetrics framesMetrics,
+            final long frameDurationNanos,
+            final long spanDurationNanos) {
+        // if there are no content changes on Android, also no new frame metrics are provided by the
+        // system
+        // in order to match the span duration with the total frame count,
+        // we simply interpolate the total number of frames based on the span duration
+        // this way the data is more sound and we also match the output of the cocoa SDK
+        final long frameMetricsDurationNanos = framesMetrics.getTotalDurationNanos();
+        final long nonRenderedDuration = spanDurationNanos - frameMetricsDurationNanos;
+        if (nonRenderedDuration > 0) {
+            return (int) Math.ceil((double) nonRenderedDuration / frameDurationNanos);
+        }
+        return 0;
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.N)
-    private void removeOnFrameMetricsAvailableListener(
-            final @NotNull Window window,
-            final @Nullable Window.OnFrameMetricsAvailableListener frameMetricsAvailableListener) {
-        window.removeOnFrameMetricsAvailableListener(frameMetricsAvailableListener);
+    private static int addPendingFrameDelay(
+            @NotNull final AppFramesMetrics framesMetrics,
+            final long frameDurationNanos,
+            final long spanEndNanos,
+            final long nextScheduledFrameNanos) {
+        final long pendingDurationNanos = Math.max(0, spanEndNanos - nextScheduledFrameNanos);
+        final boolean isSlow =
+                isSlow(pendingDurationNanos, frameDurationNanos);
+        if (isSlow) {
+            // add a single slow/frozen frame
+            final boolean isFrozen = isFrozen(pendingDurationNanos);
+            final long pendingDelayNanos = Math.max(0, pendingDurationNanos - frameDurationNanos);
+            framesMetrics.addFrame(
+                    nextScheduledFrameNanos,
+                    pendingDurationNanos,
+                    pendingDelayNanos,
+                    true,
+                    isFrozen,
+                    FrameSample.STAGE_NONE
+            );
+            return 1;
+        }
+        return 0;
     }
 }
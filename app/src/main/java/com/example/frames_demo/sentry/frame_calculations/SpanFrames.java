@@ -0,0 +1,399 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import com.example.frames_demo.common.frame_calculations.FrameSample;
+import com.example.frames_demo.common.utils.ClockAnchor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The frames of a span, stored as packed primitive columns in microseconds.
+ *
+ * <p>The start of each frame is encoded as the delta to the start of the previous frame, the
+ * first frame being relative to {@link #getBaseStartNanos()}. Frames are read with a {@link Cursor},
+ * which walks the columns in place without copying them, and the frames can be serialized with
+ * {@link #encode()}, a column by column varint encoding which takes a few bytes per frame, and
+ * the stage durations of the slow and frozen frames only.
+ */
+public final class SpanFrames {
+    private static final int FORMAT_VERSION = 2;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int STAGE_COUNT = FrameSample.STAGE_COUNT;
+
+    private static final int FLAG_SLOW = 1;
+    private static final int FLAG_FROZEN = 1 << 1;
+    // the dominant stage + 1, 0 if it's unknown
+    private static final int DOMINANT_STAGE_SHIFT = 2;
+    private static final int DOMINANT_STAGE_MASK = 0xf << DOMINANT_STAGE_SHIFT;
+    // set if the stage durations of the frame are known, or encoded
+    private static final int FLAG_STAGES = 1 << 6;
+
+    // the largest varint encoding of a long
+    private static final int MAX_VARINT_BYTES = 10;
+    // the smallest encoding of a frame, 4 varints and the flags
+    private static final int MIN_FRAME_BYTES = 5;
+
+    /**
+     * A read view of the frames, positioned before the first frame until {@link #moveToNext()} is
+     * called.
+     */
+    public final class Cursor {
+        private int index = -1;
+        private long startMicros;
+
+        public boolean moveToNext() {
+            if (index + 1 >= size) {
+                return false;
+            }
+            index++;
+            startMicros += startDeltaMicros[index];
+            return true;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the start of the frame in nanoseconds relative to System.nanoTime(), at
+         * microsecond precision.
+         */
+        public long getStartNanos() {
+            return baseStartNanos + TimeUnit.MICROSECONDS.toNanos(startMicros);
+        }
+
+        public long getStartMillis() {
+            return ClockAnchor.getInstance().toEpochMillis(getStartNanos());
+        }
+
+        public long getDurationNanos() {
+            return TimeUnit.MICROSECONDS.toNanos(durationMicros[index]);
+        }
+
+        public long getDelayNanos() {
+            return TimeUnit.MICROSECONDS.toNanos(delayMicros[index]);
+        }
+
+        public boolean isSlow() {
+            return (flags[index] & FLAG_SLOW) != 0;
+        }
+
+        public boolean isFrozen() {
+            return (flags[index] & FLAG_FROZEN) != 0;
+        }
+
+        /**
+         * Returns true if the frame was on time on the main thread, but missed its deadline
+         * because of the render thread or the gpu.
+         */
+        public boolean isRenderJank() {
+            return renderDelayMicros[index] > 0;
+        }
+
+        /**
+         * Returns the time the frame missed its deadline by, if it is a render jank, 0 otherwise.
+         */
+        public long getRenderDelayNanos() {
+            return TimeUnit.MICROSECONDS.toNanos(renderDelayMicros[index]);
+        }
+
+        /**
+         * Returns the stage which took the longest to create the frame, one of the
+         * {@link FrameSample} {@code STAGE_*} constants, or {@link FrameSample#STAGE_NONE} if
+         * unknown.
+         */
+        public int getDominantStage() {
+            return SpanFrames.this.getDominantStage(index);
+        }
+
+        /**
+         * Returns the duration of the given stage of the frame, or 0 if the stages are unknown,
+         * which is also the case for frames only partially within the span, and for frames which
+         * were neither slow nor frozen once {@link #decode decoded}.
+         *
+         * @param stage one of the {@link FrameSample} {@code STAGE_*} constants
+         */
+        public long getStageDurationNanos(final int stage) {
+            return TimeUnit.MICROSECONDS.toNanos(stageDurationMicros[index * STAGE_COUNT + stage]);
+        }
+    }
+
+    private int size;
+    private long baseStartNanos;
+    // micros(start - base) of the last added frame
+    private long lastStartMicros;
+    // micros(start - base) of the frame minus the one of the previous frame
+    private int[] startDeltaMicros;
+    private int[] durationMicros;
+    private int[] delayMicros;
+    private int[] renderDelayMicros;
+    private byte[] flags;
+    // STAGE_COUNT values per frame, 0 if the stages are unknown
+    private int[] stageDurationMicros;
+
+    SpanFrames() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    SpanFrames(final int capacity) {
+        final int initialCapacity = Math.max(1, capacity);
+        startDeltaMicros = new int[initialCapacity];
+        durationMicros = new int[initialCapacity];
+        delayMicros = new int[initialCapacity];
+        renderDelayMicros = new int[initialCapacity];
+        flags = new byte[initialCapacity];
+        stageDurationMicros = new int[initialCapacity * STAGE_COUNT];
+    }
+
+    /**
+     * Adds a frame, frames have to be added in the order they started.
+     *
+     * @param stageDurationNanos the duration of each stage of the frame, or null if unknown; it
+     *                           is copied, so it can be reused for the next frame
+     */
+    void add(
+            final long startNanos,
+            final long durationNanos,
+            final long delayNanos,
+            final boolean isSlow,
+            final boolean isFrozen,
+            final long renderDelayNanos,
+            final int dominantStage,
+            final @Nullable long[] stageDurationNanos) {
+        if (size == durationMicros.length) {
+            grow();
+        }
+        if (size == 0) {
+            baseStartNanos = startNanos;
+            lastStartMicros = 0;
+        }
+        // relative to the base rather than to the previous start, so rounding doesn't accumulate
+        final long startMicros = TimeUnit.NANOSECONDS.toMicros(startNanos - baseStartNanos);
+        startDeltaMicros[size] = (int) (startMicros - lastStartMicros);
+        lastStartMicros = startMicros;
+        durationMicros[size] = toMicros(durationNanos);
+        delayMicros[size] = toMicros(delayNanos);
+        renderDelayMicros[size] = toMicros(renderDelayNanos);
+        flags[size] = (byte) ((isSlow ? FLAG_SLOW : 0)
+                | (isFrozen ? FLAG_FROZEN : 0)
+                | (stageDurationNanos != null ? FLAG_STAGES : 0)
+                | ((dominantStage + 1) << DOMINANT_STAGE_SHIFT));
+        final int stageOffset = size * STAGE_COUNT;
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            stageDurationMicros[stageOffset + stage] =
+                    stageDurationNanos != null ? toMicros(stageDurationNanos[stage]) : 0;
+        }
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+        baseStartNanos = 0;
+        lastStartMicros = 0;
+    }
+
+    public int getFrameCount() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the start of the first frame in nanoseconds relative to System.nanoTime().
+     */
+    public long getBaseStartNanos() {
+        return baseStartNanos;
+    }
+
+    public @NotNull Cursor cursor() {
+        return new Cursor();
+    }
+
+    private int getDominantStage(final int index) {
+        return ((flags[index] & DOMINANT_STAGE_MASK) >> DOMINANT_STAGE_SHIFT) - 1;
+    }
+
+    private void grow() {
+        final int capacity = durationMicros.length * 2;
+        startDeltaMicros = Arrays.copyOf(startDeltaMicros, capacity);
+        durationMicros = Arrays.copyOf(durationMicros, capacity);
+        delayMicros = Arrays.copyOf(delayMicros, capacity);
+        renderDelayMicros = Arrays.copyOf(renderDelayMicros, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        stageDurationMicros = Arrays.copyOf(stageDurationMicros, capacity * STAGE_COUNT);
+    }
+
+    private static int toMicros(final long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    /**
+     * Serializes the frames, column by column, with varints. Stage durations are only written for
+     * the slow and frozen frames whose stages are known, the stages of render jank frames being
+     * summed up by their dominant stage and render delay.
+     */
+    public @NotNull byte[] encode() {
+        int stageFrames = 0;
+        for (int i = 0; i < size; i++) {
+            if (isStagesEncoded(i)) {
+                stageFrames++;
+            }
+        }
+        final Writer writer = new Writer(1 + 2 * MAX_VARINT_BYTES
+                + size * (4 * MAX_VARINT_BYTES + 1)
+                + stageFrames * STAGE_COUNT * MAX_VARINT_BYTES);
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeVarLong(size);
+        writer.writeVarLong(zigZag(baseStartNanos));
+        for (int i = 0; i < size; i++) {
+            writer.writeVarLong(zigZag(startDeltaMicros[i]));
+        }
+        for (int i = 0; i < size; i++) {
+            writer.writeVarLong(durationMicros[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            writer.writeVarLong(delayMicros[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            writer.writeVarLong(renderDelayMicros[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            writer.writeByte((flags[i] & ~FLAG_STAGES) | (isStagesEncoded(i) ? FLAG_STAGES : 0));
+        }
+        for (int i = 0; i < size; i++) {
+            if (!isStagesEncoded(i)) {
+                continue;
+            }
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                writer.writeVarLong(stageDurationMicros[i * STAGE_COUNT + stage]);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Reads frames serialized with {@link #encode()}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a supported encoding
+     */
+    public static @NotNull SpanFrames decode(final @NotNull byte[] bytes) {
+        final Reader reader = new Reader(bytes);
+        final int version = reader.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported span frames version " + version);
+        }
+        final long encodedSize = reader.readVarLong();
+        // a varint of 10 bytes can decode to a negative size
+        if (encodedSize < 0) {
+            throw new IllegalArgumentException("Malformed span frames size " + encodedSize);
+        }
+        if (encodedSize > reader.getRemaining() / MIN_FRAME_BYTES) {
+            throw new IllegalArgumentException("Truncated span frames of size " + encodedSize);
+        }
+        final int size = (int) encodedSize;
+        final SpanFrames frames = new SpanFrames(size);
+        frames.size = size;
+        frames.baseStartNanos = unZigZag(reader.readVarLong());
+        for (int i = 0; i < size; i++) {
+            frames.startDeltaMicros[i] = (int) unZigZag(reader.readVarLong());
+        }
+        for (int i = 0; i < size; i++) {
+            frames.durationMicros[i] = (int) reader.readVarLong();
+        }
+        for (int i = 0; i < size; i++) {
+            frames.delayMicros[i] = (int) reader.readVarLong();
+        }
+        for (int i = 0; i < size; i++) {
+            frames.renderDelayMicros[i] = (int) reader.readVarLong();
+        }
+        for (int i = 0; i < size; i++) {
+            frames.flags[i] = (byte) reader.readByte();
+        }
+        for (int i = 0; i < size; i++) {
+            if ((frames.flags[i] & FLAG_STAGES) == 0) {
+                continue;
+            }
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                frames.stageDurationMicros[i * STAGE_COUNT + stage] = (int) reader.readVarLong();
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            frames.lastStartMicros += frames.startDeltaMicros[i];
+        }
+        return frames;
+    }
+
+    private boolean isStagesEncoded(final int index) {
+        return (flags[index] & FLAG_STAGES) != 0 && (flags[index] & (FLAG_SLOW | FLAG_FROZEN)) != 0;
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        private final @NotNull byte[] buffer;
+        private int position;
+
+        Writer(final int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void writeByte(final int value) {
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        @NotNull byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class Reader {
+        private final @NotNull byte[] buffer;
+        private int position;
+
+        Reader(final @NotNull byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        int getRemaining() {
+            return buffer.length - position;
+        }
+
+        int readByte() {
+            if (position >= buffer.length) {
+                throw new IllegalArgumentException("Truncated span frames");
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in span frames");
+        }
+    }
+}
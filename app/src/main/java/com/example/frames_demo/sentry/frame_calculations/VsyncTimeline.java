@@ -0,0 +1,147 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Records the vsync timestamps the Choreographer hands to frame callbacks into a small primitive
+ * ring, replacing the reflective read of {@code Choreographer.mLastFrameTimeNanos}.
+ *
+ * <p>The callbacks run on the main thread, which is also the only writer. The timestamps can be
+ * read from any thread. When the main thread is blocked no callbacks run, so the last vsync
+ * timestamp tells when the main thread last started a frame.
+ */
+final class VsyncTimeline implements Choreographer.FrameCallback {
+    // must be a power of two
+    private static final int CAPACITY = 64;
+
+    interface Listener {
+        /**
+         * Called on the main thread for every vsync interval, used as frame source on devices
+         * without FrameMetrics.
+         *
+         * @param frameStartNanos    the vsync timestamp starting the frame
+         * @param frameDurationNanos the time until the next vsync was handled
+         */
+        void onVsyncFrame(final long frameStartNanos, final long frameDurationNanos);
+    }
+
+    private final long[] vsyncNanos = new long[CAPACITY];
+    private final @NotNull Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final @Nullable Listener listener;
+    private @Nullable Choreographer choreographer;
+
+    // total number of vsync timestamps recorded
+    private volatile long vsyncCount;
+    // the index of the first vsync recorded since the last start, the ones before were recorded
+    // before a stop and are neither read nor paired with a newer vsync
+    private volatile long firstVsyncIndex;
+    private volatile boolean isRunning;
+
+    VsyncTimeline(final @Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts recording vsync timestamps, can be called from any thread.
+     */
+    void start() {
+        mainHandler.post(() -> {
+            if (isRunning) {
+                return;
+            }
+            // The Choreographer instance must be accessed on the main thread
+            if (choreographer == null) {
+                try {
+                    choreographer = Choreographer.getInstance();
+                } catch (Throwable e) {
+                    Log.v(
+                            "VsyncTimeline",
+                            "Error retrieving Choreographer instance. Frame timestamps will not be reported.", e);
+                    return;
+                }
+            }
+            // written before isRunning, so readers seeing the timeline running skip the old ones
+            firstVsyncIndex = vsyncCount;
+            isRunning = true;
+            choreographer.postFrameCallback(this);
+        });
+    }
+
+    /**
+     * Stops recording vsync timestamps, can be called from any thread.
+     */
+    void stop() {
+        mainHandler.post(() -> {
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+            if (choreographer != null) {
+                choreographer.removeFrameCallback(this);
+            }
+        });
+    }
+
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+        if (!isRunning || choreographer == null) {
+            return;
+        }
+        final long index = vsyncCount;
+        vsyncNanos[slot(index)] = frameTimeNanos;
+        vsyncCount = index + 1;
+
+        // the first vsync after a start has no previous one, as the stopped period is not a frame
+        if (listener != null && index > firstVsyncIndex) {
+            final long previousFrameTimeNanos = vsyncNanos[slot(index - 1)];
+            listener.onVsyncFrame(previousFrameTimeNanos, frameTimeNanos - previousFrameTimeNanos);
+        }
+        choreographer.postFrameCallback(this);
+    }
+
+    /**
+     * Returns the last recorded vsync timestamp in nanoseconds relative to System.nanoTime(), or -1
+     * if the timeline is not running or nothing was recorded since it started.
+     */
+    long getLastVsyncNanos() {
+        if (!isRunning) {
+            return -1;
+        }
+        final long first = firstVsyncIndex;
+        final long count = vsyncCount;
+        if (count <= first) {
+            return -1;
+        }
+        return vsyncNanos[slot(count - 1)];
+    }
+
+    /**
+     * Returns the latest recorded vsync timestamp which is not after the given timestamp, or -1 if
+     * the timeline is not running or the timestamp is older than the ones recorded since it started.
+     */
+    long getVsyncAtOrBefore(final long timestampNanos) {
+        if (!isRunning) {
+            return -1;
+        }
+        final long first = firstVsyncIndex;
+        final long count = vsyncCount;
+        final long oldest = Math.max(first, count - CAPACITY);
+        for (long index = count - 1; index >= oldest; index--) {
+            final long vsync = vsyncNanos[slot(index)];
+            if (vsync <= timestampNanos) {
+                return vsync;
+            }
+        }
+        return -1;
+    }
+
+    private static int slot(final long index) {
+        return (int) (index & (CAPACITY - 1));
+    }
+}
@@ -19,6 +19,29 @@ public interface ISpan {
     @Nullable
     Object getData(@Nullable String key);
 
+    /**
+     * Sets a measurement of span or transaction, without boxing it.
+     *
+     * @param slot  one of the {@link SpanMeasurements} slots
+     * @param value the measurement
+     */
+    void setMeasurement(int slot, long value);
+
+    /**
+     * Returns a measurement of span or transaction.
+     *
+     * @param slot one of the {@link SpanMeasurements} slots
+     * @return the measurement, or 0 if it was not set
+     */
+    long getMeasurement(int slot);
+
+    /**
+     * Returns true if the measurement was set.
+     *
+     * @param slot one of the {@link SpanMeasurements} slots
+     */
+    boolean hasMeasurement(int slot);
+
 
     /**
      * Returns the start date of this span or transaction.
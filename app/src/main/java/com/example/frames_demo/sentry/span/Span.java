@@ -3,9 +3,19 @@ package com.example.frames_demo.sentry.span;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * A span, or a transaction if it has no parent.
+ *
+ * <p>Frame metrics are stored in typed {@link SpanMeasurements} slots, without boxing, while the
+ * data map holds the values which are objects anyway, e.g. the frames of the span. Children are
+ * started with {@link #startChild()}, and the frame metrics of the whole tree can be captured at
+ * once when the transaction is finished.
+ */
 public final class Span implements ISpan {
 
     /**
@@ -16,14 +26,81 @@ public final class Span implements ISpan {
     /**
      * The moment in time when span has ended.
      */
-    private long endTimeStamp;
+    private volatile long endTimeStamp;
 
 
     private final @NotNull Map<String, Object> data = new ConcurrentHashMap<>();
 
+    private final @NotNull long[] measurements = new long[SpanMeasurements.COUNT];
+    // a bit per set slot, written after the slot, so that a set slot is visible to other threads
+    private volatile long setMeasurements;
+
+    private final @Nullable Span parent;
+    // guarded by itself
+    private final @NotNull List<Span> children = new ArrayList<>();
+
 
     public Span() {
-        startTimeStamp = System.nanoTime();
+        this(System.nanoTime());
+    }
+
+    /**
+     * Creates a span which started at the given moment in time, e.g. for interactions whose start
+     * is only known after the fact.
+     *
+     * @param startTimeStamp the start of the span in nanoseconds relative to System.nanoTime()
+     */
+    public Span(final long startTimeStamp) {
+        this(null, startTimeStamp);
+    }
+
+    private Span(final @Nullable Span parent, final long startTimeStamp) {
+        this.parent = parent;
+        this.startTimeStamp = startTimeStamp;
+    }
+
+    /**
+     * Starts a child span now.
+     */
+    public @NotNull Span startChild() {
+        return startChild(System.nanoTime());
+    }
+
+    /**
+     * Starts a child span at the given moment in time.
+     *
+     * @param startTimeStamp the start of the child in nanoseconds relative to System.nanoTime()
+     */
+    public @NotNull Span startChild(final long startTimeStamp) {
+        final Span child = new Span(this, startTimeStamp);
+        synchronized (children) {
+            children.add(child);
+        }
+        return child;
+    }
+
+    public @Nullable Span getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns true if the span is the root of its tree.
+     */
+    public boolean isTransaction() {
+        return parent == null;
+    }
+
+    /**
+     * Returns the direct children of the span, in the order they were started.
+     */
+    public @NotNull List<Span> getChildren() {
+        synchronized (children) {
+            return new ArrayList<>(children);
+        }
+    }
+
+    public boolean isFinished() {
+        return endTimeStamp != 0;
     }
 
     @Override
@@ -61,6 +138,23 @@ public final class Span implements ISpan {
     }
 
 
+    @Override
+    public void setMeasurement(final int slot, final long value) {
+        measurements[slot] = value;
+        setMeasurements |= 1L << slot;
+    }
+
+    @Override
+    public long getMeasurement(final int slot) {
+        return hasMeasurement(slot) ? measurements[slot] : 0;
+    }
+
+    @Override
+    public boolean hasMeasurement(final int slot) {
+        return (setMeasurements & (1L << slot)) != 0;
+    }
+
+
     public void setFinishedDate(long timestamp) {
         this.endTimeStamp = timestamp;
     }
@@ -0,0 +1,66 @@
+package com.example.frames_demo.sentry.span;
+
+import com.example.frames_demo.common.frame_calculations.FrameSample;
+import com.example.frames_demo.sentry.utils.Constants;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The typed measurement slots of a span. Each measurement is a primitive long stored at a fixed
+ * index, so recording the frame metrics of a span doesn't box any value.
+ *
+ * <p>Durations are in nanoseconds.
+ */
+public final class SpanMeasurements {
+    public static final int FRAMES_TOTAL = 0;
+    public static final int FRAMES_SLOW = 1;
+    public static final int FRAMES_FROZEN = 2;
+    public static final int FRAMES_DELAY_NANOS = 3;
+    public static final int FRAMES_RENDER_JANK = 4;
+    public static final int FRAMES_RENDER_JANK_DELAY_NANOS = 5;
+    // followed by one slot per FrameSample stage
+    public static final int FRAMES_STAGE_DELAY_NANOS = 6;
+
+    public static final int COUNT = FRAMES_STAGE_DELAY_NANOS + FrameSample.STAGE_COUNT;
+
+    private static final String[] NAMES = new String[COUNT];
+
+    static {
+        NAMES[FRAMES_TOTAL] = Constants.FRAMES_TOTAL;
+        NAMES[FRAMES_SLOW] = Constants.FRAMES_SLOW;
+        NAMES[FRAMES_FROZEN] = Constants.FRAMES_FROZEN;
+        NAMES[FRAMES_DELAY_NANOS] = Constants.FRAMES_DELAY;
+        NAMES[FRAMES_RENDER_JANK] = Constants.FRAMES_RENDER_JANK;
+        NAMES[FRAMES_RENDER_JANK_DELAY_NANOS] = Constants.FRAMES_RENDER_JANK_DELAY;
+        for (int stage = 0; stage < FrameSample.STAGE_COUNT; stage++) {
+            NAMES[FRAMES_STAGE_DELAY_NANOS + stage] =
+                    Constants.FRAMES_STAGE_DELAY + ": " + FrameSample.getStageName(stage);
+        }
+    }
+
+    private SpanMeasurements() {
+    }
+
+    /**
+     * Returns the slot of the delay attributed to the given stage.
+     *
+     * @param stage one of the {@link FrameSample} {@code STAGE_*} constants
+     */
+    public static int stageDelay(final int stage) {
+        return FRAMES_STAGE_DELAY_NANOS + stage;
+    }
+
+    public static @NotNull String getName(final int slot) {
+        return NAMES[slot];
+    }
+
+    /**
+     * Returns true if the measurement of the slot is a duration in nanoseconds, false if it's a
+     * count.
+     */
+    public static boolean isDuration(final int slot) {
+        return slot == FRAMES_DELAY_NANOS
+                || slot == FRAMES_RENDER_JANK_DELAY_NANOS
+                || slot >= FRAMES_STAGE_DELAY_NANOS;
+    }
+}
@@ -6,4 +6,7 @@ public  class Constants {
     public  static final String FRAMES_SLOW = "Total Slow Frames";
     public  static final String FRAMES_FROZEN = "Total Frozen Frames";
     public static final String FRAMES_DELAY = "Total Delay Duration";
+    public static final String FRAMES_RENDER_JANK = "Total RenderThread/GPU Jank Frames";
+    public static final String FRAMES_RENDER_JANK_DELAY = "Total RenderThread/GPU Jank Delay Duration";
+    public static final String FRAMES_STAGE_DELAY = "Delay Duration by Stage";
 }
@@ -1,5 +1,7 @@
 package com.example.frames_demo.sentry.utils;
 
+import com.example.frames_demo.common.utils.ClockAnchor;
+
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import java.util.Date;
@@ -8,11 +10,27 @@ public final class DemoNanoTimeDate extends DemoDate {
 
     private final @NotNull Date date;
     private final long nanos;
+    private final long epochNanos;
 
 
     public DemoNanoTimeDate(final @NotNull Date date, final long nanos) {
         this.date = date;
         this.nanos = nanos;
+        this.epochNanos = date.getTime() * 1000000L;
+    }
+
+    /**
+     * Creates the date of a System.nanoTime() timestamp, converted with the process-wide {@link
+     * ClockAnchor} instead of reading the wall clock, which keeps the nanosecond precision.
+     */
+    public DemoNanoTimeDate(final long nanos) {
+        this.nanos = nanos;
+        this.epochNanos = ClockAnchor.getInstance().toEpochNanos(nanos);
+        this.date = new Date(epochNanos / 1000000L);
+    }
+
+    public static @NotNull DemoNanoTimeDate now() {
+        return new DemoNanoTimeDate(System.nanoTime());
     }
 
     @Override
@@ -26,7 +44,7 @@ public final class DemoNanoTimeDate extends DemoDate {
 
     @Override
     public long nanoTimestamp() {
-        return date.getTime() * 1000000L;
+        return epochNanos;
     }
 
     @Override
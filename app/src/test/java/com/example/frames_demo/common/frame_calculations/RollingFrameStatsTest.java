@@ -0,0 +1,118 @@
+package com.example.frames_demo.common.frame_calculations;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RollingFrameStatsTest {
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long BASE_SECOND = 1_000;
+
+    private final RollingFrameStats stats = new RollingFrameStats();
+
+    @Test
+    public void leavesOutCurrentSecond() {
+        recordFrames(BASE_SECOND, 60, 2);
+        recordFrames(BASE_SECOND + 1, 30, 0);
+
+        final RollingFrameStats.WindowStats window = stats.getWindow(10, nanosOf(BASE_SECOND + 1));
+
+        assertEquals(1, window.getSeconds());
+        assertEquals(60, window.getFrameCount());
+        assertEquals(2, window.getSlowFrameCount());
+        assertEquals(60f, window.getFramesPerSecond(), 0f);
+    }
+
+    @Test
+    public void countsSecondsWithoutFrames() {
+        recordFrames(BASE_SECOND, 60, 0);
+        recordFrames(BASE_SECOND + 3, 60, 0);
+
+        final RollingFrameStats.WindowStats window = stats.getWindow(10, nanosOf(BASE_SECOND + 4));
+
+        assertEquals(4, window.getSeconds());
+        assertEquals(120, window.getFrameCount());
+        assertEquals(30f, window.getFramesPerSecond(), 0f);
+    }
+
+    @Test
+    public void rollsOverBucketsOfOlderSeconds() {
+        // more seconds than buckets, the n-th second with n frames
+        final int seconds = RollingFrameStats.MAX_WINDOW_SECONDS + 5;
+        for (int i = 0; i < seconds; i++) {
+            recordFrames(BASE_SECOND + i, i + 1, 1);
+        }
+        final long nowNanos = nanosOf(BASE_SECOND + seconds);
+
+        final RollingFrameStats.WindowStats all =
+                stats.getWindow(RollingFrameStats.MAX_WINDOW_SECONDS, nowNanos);
+        assertEquals(RollingFrameStats.MAX_WINDOW_SECONDS, all.getSeconds());
+        // the last 60 seconds, with 6 to 65 frames, the first ones were overwritten
+        assertEquals(sum(6, seconds), all.getFrameCount());
+        assertEquals(RollingFrameStats.MAX_WINDOW_SECONDS, all.getSlowFrameCount());
+
+        final RollingFrameStats.WindowStats last = stats.getWindow(1, nowNanos);
+        assertEquals(seconds, last.getFrameCount());
+    }
+
+    @Test
+    public void leavesOutBucketsOfSecondsOutsideWindow() {
+        recordFrames(BASE_SECOND, 60, 0);
+        // a gap of more than the window size, the bucket of the first second is stale
+        final long nowNanos = nanosOf(BASE_SECOND + RollingFrameStats.MAX_WINDOW_SECONDS + 1);
+        recordFrames(BASE_SECOND + RollingFrameStats.MAX_WINDOW_SECONDS - 1, 10, 0);
+
+        final RollingFrameStats.WindowStats window =
+                stats.getWindow(RollingFrameStats.MAX_WINDOW_SECONDS, nowNanos);
+
+        assertEquals(10, window.getFrameCount());
+    }
+
+    @Test
+    public void ignoresFramesOlderThanWindow() {
+        recordFrames(BASE_SECOND + RollingFrameStats.MAX_WINDOW_SECONDS, 60, 0);
+        // reuses the same bucket as a newer second
+        recordFrames(BASE_SECOND, 30, 30);
+
+        final RollingFrameStats.WindowStats window = stats.getWindow(
+                1, nanosOf(BASE_SECOND + RollingFrameStats.MAX_WINDOW_SECONDS + 1));
+
+        assertEquals(60, window.getFrameCount());
+        assertEquals(0, window.getSlowFrameCount());
+    }
+
+    @Test
+    public void clearForgetsFrames() {
+        recordFrames(BASE_SECOND, 60, 5);
+        stats.clear();
+
+        assertEquals(0, stats.getWindow(10, nanosOf(BASE_SECOND + 1)).getFrameCount());
+        recordFrames(BASE_SECOND + 1, 30, 0);
+        final RollingFrameStats.WindowStats window = stats.getWindow(10, nanosOf(BASE_SECOND + 2));
+        assertEquals(1, window.getSeconds());
+        assertEquals(30, window.getFrameCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWindowLargerThanBuckets() {
+        stats.getWindow(RollingFrameStats.MAX_WINDOW_SECONDS + 1, nanosOf(BASE_SECOND));
+    }
+
+    private void recordFrames(final long second, final int frameCount, final int slowFrameCount) {
+        final long frameNanos = SECOND_NANOS / frameCount;
+        for (int i = 0; i < frameCount; i++) {
+            final boolean isSlow = i < slowFrameCount;
+            stats.record(nanosOf(second) + i * frameNanos, isSlow ? 1_000_000L : 0, isSlow, false);
+        }
+    }
+
+    private static long nanosOf(final long second) {
+        return second * SECOND_NANOS;
+    }
+
+    private static long sum(final int from, final int to) {
+        return (long) (from + to) * (to - from + 1) / 2;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.frames_demo.firebase.frame_calculations;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameDurationHistogramTest {
+
+    @Test
+    public void bucketCountFollowsMaxValue() {
+        assertEquals(192, FrameDurationHistogram.ofMillis().getBucketCount());
+        assertEquals(512, FrameDurationHistogram.ofMicros().getBucketCount());
+        assertEquals(64, new FrameDurationHistogram(63).getBucketCount());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        final FrameDurationHistogram histogram = FrameDurationHistogram.ofMillis();
+        for (int value = 0; value < 64; value++) {
+            histogram.record(value);
+            assertEquals(1, histogram.getCountAtBucket(value));
+            assertEquals(value, histogram.getBucketLowerBound(value));
+        }
+    }
+
+    @Test
+    public void largeValuesAreWithinBucketPrecision() {
+        final FrameDurationHistogram histogram = FrameDurationHistogram.ofMicros();
+        int previousBucket = -1;
+        for (long value = 64; value <= FrameDurationHistogram.MAX_MICROS; value += 7) {
+            histogram.clear();
+            histogram.record(value);
+            final int bucket = findBucket(histogram);
+            final long lowerBound = histogram.getBucketLowerBound(bucket);
+            assertTrue(value + " below its bucket", lowerBound <= value);
+            assertTrue(value + " too far from its bucket", value - lowerBound < value / 32 + 1);
+            if (bucket + 1 < histogram.getBucketCount()) {
+                assertTrue(value < histogram.getBucketLowerBound(bucket + 1));
+            }
+            assertTrue(bucket >= previousBucket);
+            previousBucket = bucket;
+        }
+        assertEquals(histogram.getBucketCount() - 1, previousBucket);
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        final FrameDurationHistogram histogram = FrameDurationHistogram.ofMillis();
+        histogram.record(-5);
+        histogram.record(FrameDurationHistogram.MAX_MILLIS + 10_000);
+
+        assertEquals(1, histogram.getCountAtBucket(0));
+        assertEquals(1, histogram.getCountAtBucket(histogram.getBucketCount() - 1));
+        assertEquals(2, histogram.getTotalCount());
+    }
+
+    @Test
+    public void percentilesAndCountAbove() {
+        final FrameDurationHistogram histogram = FrameDurationHistogram.ofMillis();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        // above the exact range, buckets are 2ms wide
+        assertEquals(90, histogram.getValueAtPercentile(90));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(84, histogram.getCountAbove(16));
+        assertEquals(100, histogram.getCountAbove(-1));
+        assertEquals(0, FrameDurationHistogram.ofMillis().getValueAtPercentile(50));
+    }
+
+    @Test
+    public void subtractLeavesValuesRecordedSinceCopy() {
+        final FrameDurationHistogram histogram = FrameDurationHistogram.ofMillis();
+        histogram.record(10, 3);
+        final FrameDurationHistogram start = histogram.copy();
+        histogram.record(10);
+        histogram.record(700, 2);
+
+        histogram.subtract(start);
+
+        assertEquals(3, histogram.getTotalCount());
+        assertEquals(1, histogram.getCountAtBucket(10));
+        assertEquals(2, histogram.getCountAbove(600));
+    }
+
+    @Test
+    public void mergeAddsValues() {
+        final FrameDurationHistogram histogram = FrameDurationHistogram.ofMillis();
+        final FrameDurationHistogram other = FrameDurationHistogram.ofMillis();
+        histogram.record(16);
+        other.record(16, 2);
+        other.record(33);
+
+        histogram.merge(other);
+
+        assertEquals(4, histogram.getTotalCount());
+        assertEquals(3, histogram.getCountAtBucket(16));
+    }
+
+    @Test
+    public void compactCopyKeepsValues() {
+        final FrameDurationHistogram histogram = FrameDurationHistogram.ofMicros();
+        histogram.record(8_000, 3);
+        histogram.record(16_000);
+        final FrameDurationHistogram copy = histogram.copy();
+
+        assertEquals(histogram.getBucketCount(), copy.getBucketCount());
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            assertEquals(histogram.getCountAtBucket(i), copy.getCountAtBucket(i));
+        }
+        assertEquals(histogram.getValueAtPercentile(50), copy.getValueAtPercentile(50));
+        assertEquals(histogram.getValueAtPercentile(100), copy.getValueAtPercentile(100));
+        assertEquals(1, copy.getCountAbove(10_000));
+
+        // values outside of the range of the copy
+        copy.record(10);
+        copy.record(500_000);
+        assertEquals(6, copy.getTotalCount());
+        assertEquals(1, copy.getCountAtBucket(10));
+        assertEquals(10, copy.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void compactCopiesSubtractAndMerge() {
+        final FrameDurationHistogram histogram = FrameDurationHistogram.ofMicros();
+        histogram.record(5_000);
+        final FrameDurationHistogram start = histogram.copy();
+        histogram.record(100);
+        histogram.record(40_000);
+        final FrameDurationHistogram end = histogram.copy();
+
+        end.subtract(start);
+        final FrameDurationHistogram merged = FrameDurationHistogram.ofMicros();
+        merged.merge(end);
+        merged.merge(FrameDurationHistogram.ofMicros().copy());
+
+        assertEquals(2, merged.getTotalCount());
+        assertEquals(0, merged.getCountAbove(40_000));
+        assertEquals(1, merged.getCountAbove(5_000));
+        assertEquals(100, merged.getValueAtPercentile(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeRejectsDifferentRange() {
+        FrameDurationHistogram.ofMillis().merge(FrameDurationHistogram.ofMicros());
+    }
+
+    private static int findBucket(final FrameDurationHistogram histogram) {
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            if (histogram.getCountAtBucket(i) > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AppFrameBufferTest {
+    private static final int CAPACITY = 4;
+    private static final long FRAME_NANOS = 16_000_000L;
+    private static final long SLOW_DURATION_NANOS = 20_000_000L;
+    private static final long SLOW_DELAY_NANOS = 4_000_000L;
+
+    private final AppFrameBuffer buffer = new AppFrameBuffer(CAPACITY);
+
+    @Test
+    public void markTotalsOfSpanLongerThanHistory() {
+        final AppFrameBuffer.TotalsMark mark = buffer.mark(0);
+        final int frameCount = 3 * CAPACITY + 1;
+        for (int i = 0; i < frameCount; i++) {
+            addSlowFrame(i);
+        }
+        assertEquals(0, mark.getIndex());
+        assertFalse(buffer.isAvailable(mark.getIndex()));
+
+        final AppFramesMetrics metrics = totalsSince(mark);
+
+        assertEquals(frameCount, metrics.getSlowFrameCount());
+        assertEquals(frameCount * SLOW_DELAY_NANOS, metrics.getSlowFrameDelayNanos());
+        assertEquals(frameCount * SLOW_DURATION_NANOS, metrics.getTotalDurationNanos());
+    }
+
+    @Test
+    public void markTotalsLeaveOutFramesBeforeMark() {
+        for (int i = 0; i < 2; i++) {
+            addSlowFrame(i);
+        }
+        // in the middle of the third frame, which ends after the mark
+        final AppFrameBuffer.TotalsMark mark = buffer.mark(2 * FRAME_NANOS + FRAME_NANOS / 2);
+        for (int i = 2; i < 2 * CAPACITY; i++) {
+            addSlowFrame(i);
+        }
+        assertEquals(2, mark.getIndex());
+
+        final AppFramesMetrics metrics = totalsSince(mark);
+
+        assertEquals(2 * CAPACITY - 2, metrics.getSlowFrameCount());
+        assertEquals((2 * CAPACITY - 2) * SLOW_DELAY_NANOS, metrics.getSlowFrameDelayNanos());
+    }
+
+    @Test
+    public void markOnEndOfFrameCountsTheFrame() {
+        for (int i = 0; i < 2; i++) {
+            addSlowFrame(i);
+        }
+        // exactly at the end of the second frame
+        final AppFrameBuffer.TotalsMark mark = buffer.mark(frameEndNanos(1));
+        for (int i = 2; i < 2 * CAPACITY; i++) {
+            addSlowFrame(i);
+        }
+        assertEquals(1, mark.getIndex());
+
+        final AppFramesMetrics metrics = totalsSince(mark);
+
+        assertEquals(2 * CAPACITY - 1, metrics.getSlowFrameCount());
+    }
+
+    @Test
+    public void markOnEvictedFrameStartsAtOldestAvailableFrame() {
+        final int frameCount = 2 * CAPACITY + 2;
+        for (int i = 0; i < frameCount; i++) {
+            addSlowFrame(i);
+        }
+        // exactly at the end of the third frame, which was overwritten before the mark was
+        // resolved, so the mark can only start at the oldest frame left
+        assertFalse(buffer.isAvailable(2));
+        final long oldestIndex = buffer.getStartIndex();
+        final AppFrameBuffer.TotalsMark mark = buffer.mark(frameEndNanos(2));
+        assertEquals(-1, mark.getIndex());
+
+        for (int i = frameCount; i < frameCount + CAPACITY; i++) {
+            addSlowFrame(i);
+        }
+        assertEquals(oldestIndex, mark.getIndex());
+
+        final AppFramesMetrics metrics = totalsSince(mark);
+
+        assertEquals(frameCount + CAPACITY - oldestIndex, metrics.getSlowFrameCount());
+        assertEquals(
+                (frameCount + CAPACITY - oldestIndex) * SLOW_DURATION_NANOS,
+                metrics.getTotalDurationNanos());
+    }
+
+    @Test
+    public void markKeepsSlowFrozenAndRenderJankTotalsApart() {
+        final AppFrameBuffer.TotalsMark mark = buffer.mark(0);
+        for (int i = 0; i < 3 * CAPACITY; i++) {
+            final long startNanos = i * FRAME_NANOS;
+            switch (i % 3) {
+                case 0:
+                    addSlowFrame(i);
+                    break;
+                case 1:
+                    buffer.add(startNanos, frameEndNanos(i), 700_000_000L, 680_000_000L,
+                            true, true, 0, FRAME_NANOS, null);
+                    break;
+                default:
+                    buffer.add(startNanos, frameEndNanos(i), 10_000_000L, 0,
+                            false, false, 3_000_000L, FRAME_NANOS, null);
+                    break;
+            }
+        }
+
+        final AppFramesMetrics metrics = totalsSince(mark);
+
+        assertEquals(CAPACITY, metrics.getSlowFrameCount());
+        assertEquals(CAPACITY * SLOW_DELAY_NANOS, metrics.getSlowFrameDelayNanos());
+        assertEquals(CAPACITY, metrics.getFrozenFrameCount());
+        assertEquals(CAPACITY * 680_000_000L, metrics.getFrozenFrameDelayNanos());
+        assertEquals(CAPACITY, metrics.getRenderJankFrameCount());
+        assertEquals(CAPACITY * 3_000_000L, metrics.getRenderJankDelayNanos());
+    }
+
+    @Test
+    public void searchesFindFramesCutBySpanBounds() {
+        // frames of 10ms every 16ms
+        for (int i = 0; i < 6; i++) {
+            addFrame(i, 10_000_000L, 0, 0);
+        }
+        final long spanStartNanos = 2 * FRAME_NANOS + 5_000_000L;
+        final long spanFinishNanos = 4 * FRAME_NANOS + 5_000_000L;
+
+        final long firstIndex = buffer.indexOfFirstEndingAtOrAfter(
+                spanStartNanos, buffer.getStartIndex(), buffer.getEndIndex());
+        final long lastIndex =
+                buffer.indexOfFirstStartingAfter(spanFinishNanos, firstIndex, buffer.getEndIndex());
+
+        assertEquals(2, firstIndex);
+        assertEquals(5, lastIndex);
+        assertFalse(buffer.isContained(2, spanStartNanos, spanFinishNanos));
+        assertTrue(buffer.isContained(3, spanStartNanos, spanFinishNanos));
+        assertFalse(buffer.isContained(4, spanStartNanos, spanFinishNanos));
+    }
+
+    @Test
+    public void searchesIncludeFramesTouchingSpanBounds() {
+        for (int i = 0; i < 6; i++) {
+            addFrame(i, 10_000_000L, 0, 0);
+        }
+        // from the end of the third frame to the start of the last one
+        final long spanStartNanos = 2 * FRAME_NANOS + 10_000_000L;
+        final long spanFinishNanos = 5 * FRAME_NANOS;
+
+        assertEquals(2, buffer.indexOfFirstEndingAtOrAfter(spanStartNanos, 2, 6));
+        assertEquals(6, buffer.indexOfFirstStartingAfter(spanFinishNanos, 2, 6));
+        // the frames only touching the span add nothing to it
+        final AppFramesMetrics metrics = new AppFramesMetrics(false);
+        buffer.addFrameIntersection(2, spanStartNanos, spanFinishNanos, metrics);
+        buffer.addFrameIntersection(5, spanStartNanos, spanFinishNanos, metrics);
+        assertEquals(0, metrics.getTotalDurationNanos());
+    }
+
+    @Test
+    public void searchesAndTotalsAfterWrapAround() {
+        final int frameCount = 2 * CAPACITY + 3;
+        for (int i = 0; i < frameCount; i++) {
+            // a distinct delay per frame, in ms
+            addFrame(i, FRAME_NANOS + i * 1_000_000L, i * 1_000_000L, 0);
+        }
+        final long startIndex = buffer.getStartIndex();
+        final long endIndex = buffer.getEndIndex();
+        assertEquals(frameCount - CAPACITY, startIndex);
+        assertTrue(buffer.isAvailable(startIndex));
+        assertFalse(buffer.isAvailable(startIndex - 1));
+
+        // the oldest frame left is in the last slot, the next ones wrapped around to the first
+        final long frame8EndNanos = 9 * FRAME_NANOS + 8_000_000L;
+        assertEquals(startIndex, buffer.indexOfFirstEndingAtOrAfter(0, startIndex, endIndex));
+        assertEquals(
+                startIndex + 1,
+                buffer.indexOfFirstEndingAtOrAfter(frame8EndNanos, startIndex, endIndex));
+        assertEquals(
+                startIndex + 2,
+                buffer.indexOfFirstEndingAtOrAfter(frame8EndNanos + 1, startIndex, endIndex));
+        assertEquals(
+                startIndex + 1,
+                buffer.indexOfFirstStartingAfter(8 * FRAME_NANOS - 1, startIndex, endIndex));
+        assertEquals(
+                endIndex,
+                buffer.indexOfFirstStartingAfter(Long.MAX_VALUE, startIndex, endIndex));
+
+        final AppFramesMetrics all = new AppFramesMetrics(false);
+        buffer.addTotals(startIndex, endIndex, all);
+        assertEquals(CAPACITY, all.getSlowFrameCount());
+        // frames 7 to 10
+        assertEquals(34_000_000L, all.getSlowFrameDelayNanos());
+        assertEquals(CAPACITY * FRAME_NANOS + 34_000_000L, all.getTotalDurationNanos());
+
+        final AppFramesMetrics wrapped = new AppFramesMetrics(false);
+        buffer.addTotals(startIndex, startIndex + 2, wrapped);
+        assertEquals(2, wrapped.getSlowFrameCount());
+        // frames 7 and 8, in the last and the first slot
+        assertEquals(15_000_000L, wrapped.getSlowFrameDelayNanos());
+    }
+
+    @Test
+    public void partialFirstAndLastFrames() {
+        // slow frames of 40ms, delayed by 24ms, every 48ms
+        for (int i = 0; i < 4; i++) {
+            buffer.add(3 * i * FRAME_NANOS, 3 * i * FRAME_NANOS + 40_000_000L, 40_000_000L,
+                    24_000_000L, true, false, 0, FRAME_NANOS, null);
+        }
+        // 5ms into the first frame, until 30ms into the last one
+        final long spanStartNanos = 5_000_000L;
+        final long spanFinishNanos = 9 * FRAME_NANOS + 30_000_000L;
+
+        final AppFramesMetrics metrics = spanTotals(spanStartNanos, spanFinishNanos);
+
+        assertEquals(4, metrics.getSlowFrameCount());
+        assertEquals(35_000_000L + 2 * 40_000_000L + 30_000_000L, metrics.getTotalDurationNanos());
+    }
+
+    @Test
+    public void partialFrameLosesDelayBeforeSpan() {
+        buffer.add(0, 40_000_000L, 40_000_000L, 24_000_000L, true, false, 0, FRAME_NANOS, null);
+
+        // the span starts 20ms into the frame, 4ms into its delay
+        final AppFramesMetrics metrics = spanTotals(20_000_000L, 100_000_000L);
+
+        assertEquals(1, metrics.getSlowFrameCount());
+        assertEquals(20_000_000L, metrics.getSlowFrameDelayNanos());
+        assertEquals(20_000_000L, metrics.getTotalDurationNanos());
+    }
+
+    @Test
+    public void partialRenderJankFrameIsBoundBySpan() {
+        buffer.add(0, 10_000_000L, 10_000_000L, 0, false, false, 8_000_000L, FRAME_NANOS, null);
+
+        final AppFramesMetrics metrics = spanTotals(5_000_000L, 8_000_000L);
+
+        assertEquals(1, metrics.getRenderJankFrameCount());
+        assertEquals(3_000_000L, metrics.getRenderJankDelayNanos());
+        assertEquals(3_000_000L, metrics.getTotalDurationNanos());
+        assertEquals(0, metrics.getSlowFrameCount());
+    }
+
+    /**
+     * Adds up the totals of a span like the collector: the partial first and last frames from
+     * their intersection with the span, the frames in between from the prefix sums.
+     */
+    private AppFramesMetrics spanTotals(final long spanStartNanos, final long spanFinishNanos) {
+        final AppFramesMetrics metrics = new AppFramesMetrics(false);
+        final long firstIndex = buffer.indexOfFirstEndingAtOrAfter(
+                spanStartNanos, buffer.getStartIndex(), buffer.getEndIndex());
+        final long lastIndex =
+                buffer.indexOfFirstStartingAfter(spanFinishNanos, firstIndex, buffer.getEndIndex());
+        long containedStartIndex = firstIndex;
+        long containedEndIndex = lastIndex;
+        if (firstIndex < lastIndex
+                && !buffer.isContained(firstIndex, spanStartNanos, spanFinishNanos)) {
+            buffer.addFrameIntersection(firstIndex, spanStartNanos, spanFinishNanos, metrics);
+            containedStartIndex++;
+        }
+        if (containedStartIndex < containedEndIndex
+                && !buffer.isContained(lastIndex - 1, spanStartNanos, spanFinishNanos)) {
+            containedEndIndex--;
+            buffer.addFrameIntersection(lastIndex - 1, spanStartNanos, spanFinishNanos, metrics);
+        }
+        buffer.addTotals(containedStartIndex, containedEndIndex, metrics);
+        return metrics;
+    }
+
+    /**
+     * Adds up the totals since the mark like the collector: the overwritten frames from the mark,
+     * the frames still available from the prefix sums.
+     */
+    private AppFramesMetrics totalsSince(final AppFrameBuffer.TotalsMark mark) {
+        final AppFramesMetrics metrics = new AppFramesMetrics(false);
+        final long startIndex = Math.max(mark.getIndex(), buffer.getStartIndex());
+        if (mark.getIndex() < startIndex) {
+            buffer.addTotalsSince(mark, startIndex, metrics);
+        }
+        buffer.addTotals(startIndex, buffer.getEndIndex(), metrics);
+        assertTrue(buffer.isAvailable(startIndex));
+        return metrics;
+    }
+
+    private void addFrame(
+            final int i,
+            final long durationNanos,
+            final long delayNanos,
+            final long renderDelayNanos) {
+        buffer.add(i * FRAME_NANOS, i * FRAME_NANOS + durationNanos, durationNanos, delayNanos,
+                delayNanos > 0, false, renderDelayNanos, FRAME_NANOS, null);
+    }
+
+    private void addSlowFrame(final int i) {
+        buffer.add(i * FRAME_NANOS, frameEndNanos(i), SLOW_DURATION_NANOS, SLOW_DELAY_NANOS,
+                true, false, 0, FRAME_NANOS, null);
+    }
+
+    private static long frameEndNanos(final int i) {
+        return i * FRAME_NANOS + SLOW_DURATION_NANOS;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameBatcherTest {
+    private static final int BATCH_SIZE = 3;
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    /**
+     * A Handler of a looper driven by a fake clock, which can be quit like the frame source
+     * thread.
+     */
+    private static final class FakeScheduler implements FrameBatcher.Scheduler {
+        private static final class Task {
+            final Runnable runnable;
+            final long dueMillis;
+
+            Task(final Runnable runnable, final long dueMillis) {
+                this.runnable = runnable;
+                this.dueMillis = dueMillis;
+            }
+        }
+
+        private final List<Task> tasks = new ArrayList<>();
+        private long nowMillis;
+        private boolean isQuit;
+        int postCount;
+
+        @Override
+        public boolean postDelayed(final @NotNull Runnable runnable, final long delayMillis) {
+            if (isQuit) {
+                return false;
+            }
+            postCount++;
+            tasks.add(new Task(runnable, nowMillis + delayMillis));
+            return true;
+        }
+
+        @Override
+        public void removeCallbacks(final @NotNull Runnable runnable) {
+            tasks.removeIf(task -> task.runnable == runnable);
+        }
+
+        void advanceBy(final long millis) {
+            nowMillis += millis;
+            final Iterator<Task> iterator = new ArrayList<>(tasks).iterator();
+            while (iterator.hasNext()) {
+                final Task task = iterator.next();
+                if (task.dueMillis <= nowMillis && tasks.remove(task)) {
+                    task.runnable.run();
+                }
+            }
+        }
+
+        /**
+         * Quits the looper, dropping the delayed messages like quitSafely().
+         */
+        void quit() {
+            isQuit = true;
+            tasks.clear();
+        }
+    }
+
+    private final List<Integer> deliveredSizes = new ArrayList<>();
+    private FrameBatcher frameBatcher;
+
+    @Before
+    public void setUp() {
+        frameBatcher = new FrameBatcher(
+                BATCH_SIZE, TIMEOUT_MILLIS, batch -> deliveredSizes.add(batch.getSize()));
+    }
+
+    @Test
+    public void deliversFullBatch() {
+        final FakeScheduler scheduler = new FakeScheduler();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            addFrame(scheduler, i);
+        }
+
+        assertEquals(List.of(BATCH_SIZE), deliveredSizes);
+        assertTrue(frameBatcher.isEmpty());
+        // the timeout of the delivered batch is cancelled
+        scheduler.advanceBy(TIMEOUT_MILLIS);
+        assertEquals(List.of(BATCH_SIZE), deliveredSizes);
+    }
+
+    @Test
+    public void deliversPartialBatchAfterTimeout() {
+        final FakeScheduler scheduler = new FakeScheduler();
+        addFrame(scheduler, 0);
+        scheduler.advanceBy(TIMEOUT_MILLIS / 2);
+        addFrame(scheduler, 1);
+
+        scheduler.advanceBy(TIMEOUT_MILLIS / 2 - 1);
+        assertTrue(deliveredSizes.isEmpty());
+        scheduler.advanceBy(1);
+        assertEquals(List.of(2), deliveredSizes);
+        assertEquals(1, scheduler.postCount);
+    }
+
+    @Test
+    public void schedulesTimeoutAgainAfterThreadRestart() {
+        final FakeScheduler scheduler = new FakeScheduler();
+        addFrame(scheduler, 0);
+        // the frame source thread quits with a frame still batched
+        scheduler.quit();
+
+        final FakeScheduler restartedScheduler = new FakeScheduler();
+        addFrame(restartedScheduler, 1);
+        restartedScheduler.advanceBy(TIMEOUT_MILLIS);
+
+        assertEquals(List.of(2), deliveredSizes);
+    }
+
+    @Test
+    public void schedulesTimeoutAgainWhenPostFailed() {
+        final FakeScheduler scheduler = new FakeScheduler();
+        scheduler.isQuit = true;
+        addFrame(scheduler, 0);
+        scheduler.isQuit = false;
+        addFrame(scheduler, 1);
+        scheduler.advanceBy(TIMEOUT_MILLIS);
+
+        assertEquals(List.of(2), deliveredSizes);
+    }
+
+    @Test
+    public void flushDeliversToRemovedListener() {
+        final FakeScheduler scheduler = new FakeScheduler();
+        final List<Integer> removedSizes = new ArrayList<>();
+        addFrame(scheduler, 0);
+
+        frameBatcher.flush(batch -> removedSizes.add(batch.getSize()));
+
+        assertEquals(List.of(1), deliveredSizes);
+        assertEquals(List.of(1), removedSizes);
+        // the timeout is cancelled, and the next frame starts a new batch with its own timeout
+        scheduler.advanceBy(TIMEOUT_MILLIS);
+        assertEquals(List.of(1), deliveredSizes);
+        addFrame(scheduler, 1);
+        scheduler.advanceBy(TIMEOUT_MILLIS);
+        assertEquals(List.of(1, 1), deliveredSizes);
+    }
+
+    private void addFrame(final FakeScheduler scheduler, final int index) {
+        final long startNanos = index * 16_666_666L;
+        frameBatcher.add(
+                scheduler, startNanos, startNanos + 10_000_000L, 10_000_000L, 0, false, false, 60f);
+    }
+}
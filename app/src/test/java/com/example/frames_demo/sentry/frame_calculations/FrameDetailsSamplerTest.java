@@ -0,0 +1,66 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDetailsSamplerTest {
+
+    @Test
+    public void keepsLargestDelaysInOrder() {
+        final FrameDetailsSampler sampler = new FrameDetailsSampler(3);
+
+        assertEquals(List.of(2, 4, 5), sample(sampler, 2, 1, 9, 3, 7, 8, 4));
+    }
+
+    @Test
+    public void keepsFirstFramesOfTiedSmallestDelay() {
+        final FrameDetailsSampler sampler = new FrameDetailsSampler(3);
+
+        // 9 and two of the four frames of 4 fit, the first ones are kept
+        assertEquals(List.of(1, 2, 3), sample(sampler, 1, 9, 4, 4, 4, 2, 4));
+    }
+
+    @Test
+    public void keepsFirstFramesWhenAllDelaysAreTied() {
+        final FrameDetailsSampler sampler = new FrameDetailsSampler(3);
+
+        assertEquals(List.of(0, 1, 2), sample(sampler, 5, 5, 5, 5, 5));
+    }
+
+    @Test
+    public void keepsAllFramesWhenFewerThanMax() {
+        final FrameDetailsSampler sampler = new FrameDetailsSampler(5);
+
+        assertEquals(List.of(0, 1, 2), sample(sampler, 3, 0, 3));
+    }
+
+    @Test
+    public void clearsBetweenSpans() {
+        final FrameDetailsSampler sampler = new FrameDetailsSampler(2);
+        sample(sampler, 9, 9, 9);
+        sampler.clear();
+
+        assertEquals(List.of(0, 2), sample(sampler, 3, 1, 2));
+    }
+
+    /**
+     * Runs both passes over the given delays, returning the indexes of the kept frames.
+     */
+    private static List<Integer> sample(final FrameDetailsSampler sampler, final long... delays) {
+        for (long delay : delays) {
+            sampler.offer(delay);
+        }
+        sampler.select();
+        final List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < delays.length; i++) {
+            if (sampler.keep(delays[i])) {
+                kept.add(i);
+            }
+        }
+        return kept;
+    }
+}
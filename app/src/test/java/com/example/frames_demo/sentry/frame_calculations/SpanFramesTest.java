@@ -0,0 +1,142 @@
+package com.example.frames_demo.sentry.frame_calculations;
+
+import com.example.frames_demo.common.frame_calculations.FrameSample;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SpanFramesTest {
+    private static final long BASE_START_NANOS = 5_000_000_000L;
+    private static final long FRAME_NANOS = 16_666_666L;
+
+    @Test
+    public void roundTripsFrames() {
+        final SpanFrames frames = new SpanFrames(2);
+        final long[] stages = stageDurations(1_000_000L);
+        // a slow frame, a render jank frame and a frozen frame whose stages are unknown
+        frames.add(BASE_START_NANOS, 40_000_000L, 23_000_000L, true, false, 0,
+                FrameSample.STAGE_DRAW, stages);
+        frames.add(BASE_START_NANOS + 3 * FRAME_NANOS, 10_000_000L, 0, false, false, 4_000_000L,
+                FrameSample.STAGE_GPU, stages);
+        frames.add(BASE_START_NANOS + 70 * FRAME_NANOS, 800_000_000L, 783_000_000L, true, true, 0,
+                FrameSample.STAGE_NONE, null);
+
+        final SpanFrames.Cursor cursor = SpanFrames.decode(frames.encode()).cursor();
+
+        assertTrue(cursor.moveToNext());
+        assertEquals(BASE_START_NANOS, cursor.getStartNanos());
+        assertEquals(40_000_000L, cursor.getDurationNanos());
+        assertEquals(23_000_000L, cursor.getDelayNanos());
+        assertTrue(cursor.isSlow());
+        assertFalse(cursor.isFrozen());
+        assertFalse(cursor.isRenderJank());
+        assertEquals(FrameSample.STAGE_DRAW, cursor.getDominantStage());
+        for (int stage = 0; stage < FrameSample.STAGE_COUNT; stage++) {
+            assertEquals(stages[stage], cursor.getStageDurationNanos(stage));
+        }
+
+        assertTrue(cursor.moveToNext());
+        // at microsecond precision
+        assertEquals(BASE_START_NANOS + 49_999_000L, cursor.getStartNanos());
+        assertTrue(cursor.isRenderJank());
+        assertEquals(4_000_000L, cursor.getRenderDelayNanos());
+        assertEquals(FrameSample.STAGE_GPU, cursor.getDominantStage());
+        // the stages of frames which are neither slow nor frozen are not encoded
+        for (int stage = 0; stage < FrameSample.STAGE_COUNT; stage++) {
+            assertEquals(0, cursor.getStageDurationNanos(stage));
+        }
+
+        assertTrue(cursor.moveToNext());
+        assertEquals(BASE_START_NANOS + 1_166_666_000L, cursor.getStartNanos());
+        assertTrue(cursor.isSlow());
+        assertTrue(cursor.isFrozen());
+        assertEquals(FrameSample.STAGE_NONE, cursor.getDominantStage());
+        assertEquals(0, cursor.getStageDurationNanos(FrameSample.STAGE_DRAW));
+
+        assertFalse(cursor.moveToNext());
+    }
+
+    @Test
+    public void roundTripsEmptyFrames() {
+        final SpanFrames frames = SpanFrames.decode(new SpanFrames().encode());
+
+        assertTrue(frames.isEmpty());
+        assertFalse(frames.cursor().moveToNext());
+    }
+
+    @Test
+    public void encodesStagesOfSlowFramesOnly() {
+        final int frameCount = 100;
+        final long[] stages = stageDurations(1_000_000L);
+        final SpanFrames renderJankFrames = new SpanFrames();
+        final SpanFrames slowFrames = new SpanFrames();
+        for (int i = 0; i < frameCount; i++) {
+            final long startNanos = BASE_START_NANOS + 2 * i * FRAME_NANOS;
+            renderJankFrames.add(startNanos, 14_000_000L, 0, false, false, 4_000_000L,
+                    FrameSample.STAGE_GPU, stages);
+            slowFrames.add(startNanos, 14_000_000L, 4_000_000L, true, false, 0,
+                    FrameSample.STAGE_DRAW, stages);
+        }
+
+        // start delta, duration, delay, render delay and flags take 3 + 2 + 1 + 2 + 1 bytes
+        final int renderJankSize = renderJankFrames.encode().length;
+        assertTrue(renderJankSize <= frameCount * 9 + 16);
+        // each stage of 1ms takes 2 bytes
+        assertEquals(
+                frameCount * 2 * FrameSample.STAGE_COUNT,
+                slowFrames.encode().length - renderJankSize);
+    }
+
+    @Test
+    public void rejectsSizeLargerThanBytes() {
+        final SpanFrames frames = new SpanFrames();
+        frames.add(BASE_START_NANOS, 40_000_000L, 23_000_000L, true, false, 0,
+                FrameSample.STAGE_NONE, null);
+        final byte[] bytes = frames.encode();
+        // the version, then a size of 2^35 - 1 which would not fit the remaining bytes
+        final byte[] oversized = new byte[bytes.length + 4];
+        oversized[0] = bytes[0];
+        Arrays.fill(oversized, 1, 5, (byte) 0xff);
+        oversized[5] = 0x7f;
+        System.arraycopy(bytes, 2, oversized, 6, bytes.length - 2);
+
+        assertThrows(IllegalArgumentException.class, () -> SpanFrames.decode(oversized));
+
+        // the version, then a size of -1, the largest varint of 10 bytes
+        final byte[] negative = new byte[bytes.length + 9];
+        negative[0] = bytes[0];
+        Arrays.fill(negative, 1, 10, (byte) 0xff);
+        negative[10] = 0x01;
+        System.arraycopy(bytes, 2, negative, 11, bytes.length - 2);
+
+        assertThrows(IllegalArgumentException.class, () -> SpanFrames.decode(negative));
+    }
+
+    @Test
+    public void rejectsTruncatedBytes() {
+        final SpanFrames frames = new SpanFrames();
+        frames.add(BASE_START_NANOS, 40_000_000L, 23_000_000L, true, false, 0,
+                FrameSample.STAGE_DRAW, stageDurations(1_000_000L));
+        final byte[] bytes = frames.encode();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> SpanFrames.decode(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+
+    @Test
+    public void rejectsUnsupportedVersion() {
+        final byte[] bytes = new SpanFrames().encode();
+        bytes[0]++;
+
+        assertThrows(IllegalArgumentException.class, () -> SpanFrames.decode(bytes));
+    }
+
+    private static long[] stageDurations(final long durationNanos) {
+        final long[] stages = new long[FrameSample.STAGE_COUNT];
+        Arrays.fill(stages, durationNanos);
+        return stages;
+    }
+}